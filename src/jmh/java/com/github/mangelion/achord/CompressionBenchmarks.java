@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017-2018 Mangelion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.mangelion.achord;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import net.jpountz.lz4.LZ4Factory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+
+import static com.github.mangelion.achord.CompressionMethod.HASH_SIZE;
+import static com.github.mangelion.achord.CompressionMethod.HEADER_SIZE;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static org.openjdk.jmh.annotations.Mode.Throughput;
+
+/**
+ * @since 17.10.2026
+ * <p>
+ * Compares codecs resolved once behind {@link Compressor} and {@link Decompressor}
+ * with resolving of {@link LZ4Factory#fastestInstance()} for every block.
+ * Block sizes are 64 KiB and 1M rows of UInt32 column.
+ */
+@Fork(value = 1, jvmArgs = {"-server"})
+@BenchmarkMode(Throughput)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class CompressionBenchmarks {
+    @Param({"65536", "4194304"})
+    private int blockSize;
+    private ByteBuf block;
+    private ByteBuf compressed;
+    private ByteBuf frame;
+    private ByteBuf decompressed;
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(CompressionBenchmarks.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+
+    @Setup
+    public void setup() {
+        PooledByteBufAllocator alloc = PooledByteBufAllocator.DEFAULT;
+        block = alloc.directBuffer(blockSize, blockSize);
+        // slowly growing values, like ids or timestamps
+        for (int i = 0; i < blockSize / 4; i++) {
+            block.writeIntLE(i / 16);
+        }
+
+        int maxBound = CompressionMethod.LZ4.compressor().maxCompressedLength(blockSize);
+        compressed = alloc.directBuffer(HASH_SIZE + HEADER_SIZE + maxBound);
+        decompressed = alloc.directBuffer(blockSize, blockSize);
+
+        frame = alloc.directBuffer(HASH_SIZE + HEADER_SIZE + maxBound);
+        CompressionMethod.LZ4.compress(block, 0, frame, 0);
+        frame.readerIndex(HASH_SIZE + HEADER_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        block.release();
+        compressed.release();
+        frame.release();
+        decompressed.release();
+    }
+
+    @Benchmark
+    public ByteBuf compressLz4() {
+        compressed.clear();
+        CompressionMethod.LZ4.compress(block, 0, compressed, 0);
+        return compressed;
+    }
+
+    @Benchmark
+    public int compressLz4ResolvedPerBlock() {
+        int maxBound = Lz4Codec.lz4CompressBound(blockSize);
+        ByteBuffer src = block.internalNioBuffer(0, blockSize);
+        ByteBuffer dst = compressed.clear().internalNioBuffer(HASH_SIZE + HEADER_SIZE, maxBound);
+
+        return LZ4Factory.fastestInstance().fastCompressor()
+                .compress(src, src.position(), blockSize, dst, dst.position(), maxBound);
+    }
+
+    @Benchmark
+    public ByteBuf decompressLz4() {
+        CompressionMethod.LZ4.decompressor()
+                .decompress(frame, frame.readerIndex(), frame.readableBytes(), decompressed, 0, blockSize);
+        return decompressed;
+    }
+
+    @Benchmark
+    public int decompressLz4ResolvedPerBlock() {
+        ByteBuffer src = frame.internalNioBuffer(frame.readerIndex(), frame.readableBytes());
+        ByteBuffer dst = decompressed.internalNioBuffer(0, blockSize);
+
+        return LZ4Factory.fastestInstance().fastDecompressor()
+                .decompress(src, src.position(), dst, dst.position(), blockSize);
+    }
+
+    @Benchmark
+    public ByteBuf compressZstd() {
+        compressed.clear();
+        CompressionMethod.ZSTD.compress(block, 0, compressed, 1);
+        return compressed;
+    }
+}
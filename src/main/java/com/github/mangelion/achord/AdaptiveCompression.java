@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017-2018 Mangelion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.mangelion.achord;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+/**
+ * Selects compression method for every compressed frame of channel with {@link ClickHouseClient#adaptiveCompression(boolean)}.
+ * <p>
+ * Compression and sending are pipelined, so throughput of channel is bounded by the slowest stage.
+ * Cost of one uncompressed byte for method is estimated as {@code max(cpu, ratio * network)}, where
+ * {@code cpu} is measured compression time per byte, {@code ratio} is measured compressed to uncompressed size and
+ * {@code network} is time per byte of draining outbound buffer, that is measured only while buffer is under pressure.
+ * Method with the lowest cost gives maximum rows per second, because rows per byte do not depend on method.
+ * <p>
+ * Frames are compressed in parallel, but all methods except {@link #onWritten(Channel, int)}
+ * are invoked from compression executor of channel, that selects methods and writes frames in order.
+ *
+ * @since 17.10.2026
+ */
+final class AdaptiveCompression {
+    static final AttributeKey<AdaptiveCompression> ADAPTIVE_COMPRESSION_ATTRIBUTE = AttributeKey.newInstance("ADAPTIVE_COMPRESSION");
+    private static final CompressionMethod[] CANDIDATES = {CompressionMethod.LZ4, CompressionMethod.LZ4HC, CompressionMethod.ZSTD};
+    // weight of the newest measurement
+    private static final double ALPHA = 0.25;
+    // every n-th frame is compressed by next candidate in turn, so estimations of unused methods do not become stale
+    private static final int PROBE_INTERVAL = 32;
+    private final long[] levels = new long[CANDIDATES.length];
+    private final double[] nanosPerByte = new double[CANDIDATES.length];
+    private final double[] ratio = new double[CANDIDATES.length];
+    private long frames;
+    // shared with channel event loop, lost update only makes estimation a bit less precise
+    private volatile double networkNanosPerByte;
+    private volatile long lastWrittenNanos;
+
+    AdaptiveCompression(long lz4HcLevel, long zstdLevel) {
+        levels[1] = lz4HcLevel;
+        levels[2] = zstdLevel;
+        for (int i = 0; i < CANDIDATES.length; i++) {
+            nanosPerByte[i] = Double.NaN;
+        }
+    }
+
+    CompressionMethod method(int candidate) {
+        return CANDIDATES[candidate];
+    }
+
+    long level(int candidate) {
+        return levels[candidate];
+    }
+
+    // invokes when frame compressed by candidate is ready to be written
+    void onCompressed(int candidate, int uncompressedSize, int frameSize, long elapsedNanos) {
+        if (uncompressedSize > 0) {
+            nanosPerByte[candidate] = ewma(nanosPerByte[candidate], (double) elapsedNanos / uncompressedSize);
+            ratio[candidate] = ewma(ratio[candidate], (double) frameSize / uncompressedSize);
+        }
+    }
+
+    // invokes when frame is flushed to socket
+    void onWritten(Channel channel, int frameSize) {
+        onWritten(frameSize, pendingBytes(channel), System.nanoTime());
+    }
+
+    void onWritten(int frameSize, long pendingBytes, long nowNanos) {
+        long last = lastWrittenNanos;
+        lastWrittenNanos = nowNanos;
+
+        // only when something still waits in outbound buffer, network is a bottleneck and its speed is observable
+        if (last != 0 && frameSize > 0 && pendingBytes > 0) {
+            networkNanosPerByte = ewma(networkNanosPerByte, (double) (nowNanos - last) / frameSize);
+        }
+    }
+
+    // index of candidate for the next frame
+    int select(Channel channel) {
+        return select(pendingBytes(channel));
+    }
+
+    int select(long pendingBytes) {
+        long n = frames++;
+
+        for (int i = 0; i < CANDIDATES.length; i++) {
+            if (Double.isNaN(nanosPerByte[i])) {
+                return i;
+            }
+        }
+
+        if (n % PROBE_INTERVAL == 0) {
+            return (int) ((n / PROBE_INTERVAL) % CANDIDATES.length);
+        }
+
+        double network = networkNanosPerByte;
+        if (pendingBytes == 0) {
+            // network drains everything we produce, so forget its slowness gradually
+            networkNanosPerByte = network = network * (1 - ALPHA);
+        }
+
+        int best = 0;
+        double bestCost = Double.MAX_VALUE;
+        for (int i = 0; i < CANDIDATES.length; i++) {
+            double cost = Math.max(nanosPerByte[i], ratio[i] * network);
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = i;
+            }
+        }
+
+        return best;
+    }
+
+    private static long pendingBytes(Channel channel) {
+        if (channel.isWritable()) {
+            return channel.config().getWriteBufferHighWaterMark() - channel.bytesBeforeUnwritable();
+        } else {
+            return channel.config().getWriteBufferLowWaterMark() + channel.bytesBeforeWritable();
+        }
+    }
+
+    private static double ewma(double average, double value) {
+        return Double.isNaN(average) || average == 0 ? value : average + ALPHA * (value - average);
+    }
+}
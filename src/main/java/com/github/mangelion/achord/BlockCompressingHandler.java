@@ -17,40 +17,327 @@
 package com.github.mangelion.achord;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.Future;
 
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+
+import static com.github.mangelion.achord.AdaptiveCompression.ADAPTIVE_COMPRESSION_ATTRIBUTE;
 import static com.github.mangelion.achord.ClickHousePacketDecoder.CH_SERVER_COMPRESSION_LEVEL_ATTRIBUTE;
 import static com.github.mangelion.achord.ClickHousePacketDecoder.CH_SERVER_COMPRESSION_METHOD_ATTRIBUTE;
+import static com.github.mangelion.achord.CompressionMethod.HASH_SIZE;
+import static com.github.mangelion.achord.CompressionMethod.HEADER_SIZE;
 
 /**
+ * Cuts blocks into compressed frames of at most max_compress_block_size uncompressed bytes,
+ * like native ClickHouse client does. Frames are compressed in parallel by threads of compression group
+ * and written in order of their blocks, so one insert uses more than one core and latency per frame is bounded.
+ * <p>
+ * Server reads compressed frames as one continuous stream, so block may be split between frames anywhere.
+ * Large column buffers are compressed in place, only metadata and small columns are coalesced into scratch buffers.
+ * <p>
+ * Keeps order of frames, so it is created for every channel. All state is accessed from executor of handler.
+ *
  * @author Dmitriy Poluyanov
  * @since 21/02/2018
  */
-@ChannelHandler.Sharable
-final class BlockCompressingHandler extends MessageToByteEncoder<DataBlock> {
-    static final BlockCompressingHandler BLOCK_COMPRESSING_HANDLER = new BlockCompressingHandler();
+final class BlockCompressingHandler extends ChannelOutboundHandlerAdapter {
+    // smaller columns are copied into scratch buffer, so tiny frames do not spoil compression ratio
+    private static final int MIN_IN_PLACE_SIZE = 64 * 1024;
+    private final EventExecutorGroup compressionGroup;
+    private final int maxFrameSize;
+    private final int minInPlaceSize;
+    // messages in order of writing, head is written as soon as it is ready
+    private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+    private ChannelHandlerContext ctx;
+    private boolean flushPending;
+    // compressed size of frames of the block, that is being written, used for adaptive compression only
+    private int blockCompressedSize;
+
+    BlockCompressingHandler(EventExecutorGroup compressionGroup, int maxFrameSize) {
+        this.compressionGroup = compressionGroup;
+        this.maxFrameSize = maxFrameSize;
+        this.minInPlaceSize = Math.min(MIN_IN_PLACE_SIZE, maxFrameSize);
+    }
 
     @Override
-    protected void encode(ChannelHandlerContext ctx, DataBlock msg, ByteBuf out) {
-        CompressionMethod compressionMethod = ctx.channel().attr(CH_SERVER_COMPRESSION_METHOD_ATTRIBUTE).get();
-        long level = ctx.channel().attr(CH_SERVER_COMPRESSION_LEVEL_ATTRIBUTE).get();
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
 
-        DataBlockEncoder.writeHeader(msg, out);
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        discardAll(new ClosedChannelException());
+    }
 
-        int inStart;
-        ByteBuf in = null;
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        if (!(msg instanceof DataBlock)) {
+            if (frames.isEmpty()) {
+                ctx.write(msg, promise);
+            } else {
+                // should not overtake frames of previous blocks
+                frames.add(new Frame(msg, promise));
+            }
+            return;
+        }
+
+        DataBlock block = (DataBlock) msg;
         try {
-            in = ctx.alloc().buffer();
-            inStart = in.writerIndex();
-            DataBlockEncoder.writeBlock(msg, in);
-            // todo: at this point we can switch compression method on-the-fly
-            // depending on channel writeability (zstd or lzhc if not writable and vice versa lz4)
-            compressionMethod.compress(in, inStart, out, level);
+            ByteBuf header = ctx.alloc().directBuffer();
+            DataBlockEncoder.writeHeader(block, header);
+            frames.add(new Frame(header, null));
+
+            splitIntoFrames(block);
+        } catch (Throwable e) {
+            discardAll(e);
+            promise.tryFailure(e);
+            ctx.close();
+            return;
         } finally {
-            ReferenceCountUtil.release(in);
+            ReferenceCountUtil.release(block);
+        }
+
+        // the last frame completes promise of block
+        frames.peekLast().promise = promise;
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) {
+        if (frames.isEmpty()) {
+            ctx.flush();
+        } else {
+            flushPending = true;
+        }
+    }
+
+    private void splitIntoFrames(DataBlock block) {
+        ByteBuf scratch = ctx.alloc().directBuffer();
+        DataBlockEncoder.writeBlockInfo(block, scratch);
+
+        ColumnWithTypeAndName[] columns = block.columns;
+        for (int i = 0; i < columns.length; i++) {
+            ColumnWithTypeAndName c = columns[i];
+            DataBlockEncoder.writeColumnHeader(c, scratch);
+
+            if (block.rows == 0) {
+                continue;
+            }
+
+            // streams of composite column follow each other
+            for (ColumnWithTypeAndName stream = c; stream != null; stream = stream.nested) {
+                scratch = splitIntoFrames(block, stream.data, scratch);
+            }
+        }
+
+        compress(scratch);
+    }
+
+    // returns scratch buffer, that accumulates small data of the next frame
+    private ByteBuf splitIntoFrames(DataBlock block, ByteBuf data, ByteBuf scratch) {
+        // column buffer is shared with block, so its indexes are not changed
+        int index = data.readerIndex();
+        int remaining = data.readableBytes();
+
+        if (remaining >= minInPlaceSize && data.isDirect() && data.nioBufferCount() == 1) {
+            compress(scratch);
+            scratch = ctx.alloc().directBuffer();
+
+            while (remaining > 0) {
+                int length = Math.min(remaining, maxFrameSize);
+                // block keeps column alive until frame is compressed, so column returns to pool with the block
+                compress(data.slice(index, length), block.retain());
+                index += length;
+                remaining -= length;
+            }
+        } else {
+            while (remaining > 0) {
+                int length = Math.min(remaining, maxFrameSize - scratch.readableBytes());
+                scratch.writeBytes(data, index, length);
+                index += length;
+                remaining -= length;
+
+                if (scratch.readableBytes() >= maxFrameSize) {
+                    compress(scratch);
+                    scratch = ctx.alloc().directBuffer();
+                }
+            }
+        }
+        return scratch;
+    }
+
+    // takes ownership of buffer and submits its readable bytes to compression as one frame
+    private void compress(ByteBuf in) {
+        compress(in, in);
+    }
+
+    // takes ownership of owner, that keeps readable bytes of buffer alive until they are compressed
+    private void compress(ByteBuf in, ReferenceCounted owner) {
+        if (!in.isReadable()) {
+            owner.release();
+            return;
+        }
+
+        CompressionMethod method = ctx.channel().attr(CH_SERVER_COMPRESSION_METHOD_ATTRIBUTE).get();
+        long level = ctx.channel().attr(CH_SERVER_COMPRESSION_LEVEL_ATTRIBUTE).get();
+        int candidate = -1;
+        AdaptiveCompression adaptive = ctx.channel().attr(ADAPTIVE_COMPRESSION_ATTRIBUTE).get();
+
+        if (adaptive != null) {
+            // switch compression method on-the-fly depending on channel writeability
+            candidate = adaptive.select(ctx.channel());
+            method = adaptive.method(candidate);
+            level = adaptive.level(candidate);
+        }
+
+        CompressTask task = new CompressTask(in, owner, method, level);
+        Frame frame = new Frame(compressionGroup.next().submit(task), task, candidate);
+        frames.add(frame);
+
+        // never drains inline, because promise of block is assigned only after all its frames are submitted
+        frame.future.addListener(future -> ctx.executor().execute(this::drain));
+    }
+
+    private void drain() {
+        Frame frame;
+        boolean written = false;
+
+        while ((frame = frames.peek()) != null && frame.isDone()) {
+            frames.poll();
+
+            if (frame.future != null && !frame.future.isSuccess()) {
+                discardAll(frame.future.cause());
+                if (frame.promise != null) {
+                    frame.promise.tryFailure(frame.future.cause());
+                }
+                ctx.close();
+                return;
+            }
+
+            write(frame);
+            written = true;
+        }
+
+        if (flushPending && written) {
+            flushPending = !frames.isEmpty();
+            ctx.flush();
+        }
+    }
+
+    private void write(Frame frame) {
+        Object msg = frame.future != null ? frame.future.getNow() : frame.msg;
+        AdaptiveCompression adaptive = ctx.channel().attr(ADAPTIVE_COMPRESSION_ATTRIBUTE).get();
+
+        if (adaptive != null && frame.future != null) {
+            int frameSize = ((ByteBuf) msg).readableBytes();
+            adaptive.onCompressed(frame.candidate, frame.task.uncompressedSize, frameSize, frame.task.elapsedNanos);
+            blockCompressedSize += frameSize;
+        }
+
+        if (frame.promise == null) {
+            ctx.write(msg, ctx.voidPromise());
+            return;
+        }
+
+        if (adaptive != null && !frame.promise.isVoid() && blockCompressedSize > 0) {
+            int size = blockCompressedSize;
+            frame.promise.addListener(future -> {
+                if (future.isSuccess()) {
+                    adaptive.onWritten(ctx.channel(), size);
+                }
+            });
+        }
+        blockCompressedSize = 0;
+
+        ctx.write(msg, frame.promise);
+    }
+
+    private void discardAll(Throwable cause) {
+        Frame frame;
+        while ((frame = frames.poll()) != null) {
+            if (frame.future == null) {
+                ReferenceCountUtil.release(frame.msg);
+            } else {
+                // compression may still be in progress
+                frame.future.addListener(future -> ReferenceCountUtil.release(future.getNow()));
+            }
+
+            if (frame.promise != null) {
+                frame.promise.tryFailure(cause);
+            }
+        }
+        blockCompressedSize = 0;
+    }
+
+    private static final class Frame {
+        final Object msg;
+        final Future<ByteBuf> future;
+        final CompressTask task;
+        // index of adaptive compression candidate
+        final int candidate;
+        // only the last frame of block completes its promise
+        ChannelPromise promise;
+
+        Frame(Object msg, ChannelPromise promise) {
+            this.msg = msg;
+            this.promise = promise;
+            this.future = null;
+            this.task = null;
+            this.candidate = -1;
+        }
+
+        Frame(Future<ByteBuf> future, CompressTask task, int candidate) {
+            this.msg = null;
+            this.future = future;
+            this.task = task;
+            this.candidate = candidate;
+        }
+
+        boolean isDone() {
+            return future == null || future.isDone();
+        }
+    }
+
+    private static final class CompressTask implements Callable<ByteBuf> {
+        private final ByteBuf in;
+        private final ReferenceCounted owner;
+        private final CompressionMethod method;
+        private final long level;
+        final int uncompressedSize;
+        // visible to handler executor through completion of future
+        long elapsedNanos;
+
+        CompressTask(ByteBuf in, ReferenceCounted owner, CompressionMethod method, long level) {
+            this.in = in;
+            this.owner = owner;
+            this.method = method;
+            this.level = level;
+            this.uncompressedSize = in.readableBytes();
+        }
+
+        // native compressors work with direct memory only
+        @Override
+        public ByteBuf call() {
+            ByteBuf out = null;
+            try {
+                long start = System.nanoTime();
+                out = in.alloc().directBuffer(HASH_SIZE + HEADER_SIZE + method.compressor().maxCompressedLength(uncompressedSize));
+                method.compress(in, in.readerIndex(), out, level);
+                elapsedNanos = System.nanoTime() - start;
+                return out;
+            } catch (Throwable e) {
+                ReferenceCountUtil.release(out);
+                throw e;
+            } finally {
+                owner.release();
+            }
         }
     }
 }
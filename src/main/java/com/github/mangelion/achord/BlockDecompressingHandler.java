@@ -16,45 +16,273 @@
 
 package com.github.mangelion.achord;
 
+import com.github.mangelion.achord.ClickHousePacketDecoder.BlockScanner;
 import io.netty.buffer.ByteBuf;
-import io.netty.channel.ChannelHandler;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.DecoderException;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.Future;
 
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
 
 /**
+ * Decompresses received frames in parallel by threads of compression group, so one large result
+ * uses more than one core. Decoded blocks and other server messages are passed further in order they were received:
+ * every message takes next place in queue, and head of queue is passed as soon as it is ready.
+ * <p>
+ * Block larger than max_compress_block_size is received as several frames, they are decompressed in parallel too,
+ * and joined in order of receiving until they hold complete block, then decoder is notified about the end of block.
+ * <p>
+ * Keeps order of messages, so it is created for every channel. All state is accessed from executor of handler.
+ *
  * @author Dmitriy Poluyanov
  * @since 19/02/2018
  */
-@ChannelHandler.Sharable
-final class BlockDecompressingHandler extends MessageToMessageDecoder<CompressedBlock> {
-    static final BlockDecompressingHandler BLOCK_DECOMPRESSING_HANDLER = new BlockDecompressingHandler();
+final class BlockDecompressingHandler extends ChannelInboundHandlerAdapter {
+    private final EventExecutorGroup compressionGroup;
+    // messages in order of receiving, head is passed as soon as it is ready
+    private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+    private ChannelHandlerContext ctx;
+    // decoder of channel, that waits for the end of compressed block to decode the next packet
+    private ClickHousePacketDecoder decoder;
+    // decompressed frames of block, that is not complete yet, and progress of its scanning
+    private ByteBuf block;
+    private BlockScanner scanner;
+    private boolean removed;
+
+    BlockDecompressingHandler(EventExecutorGroup compressionGroup) {
+        this.compressionGroup = compressionGroup;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+        this.decoder = ctx.pipeline().get(ClickHousePacketDecoder.class);
+    }
 
     @Override
-    protected void decode(ChannelHandlerContext ctx, CompressedBlock compressedBlock, List<Object> out) {
-        ByteBuf decompressed;
-
-        switch (compressedBlock.method) {
-            case 0x82:
-                decompressed = CompressionMethod.LZ4.decompress(compressedBlock.compressed, compressedBlock.decompressedSize, ctx.alloc());
-                break;
-            case 0x90:
-                decompressed = CompressionMethod.ZSTD.decompress(compressedBlock.compressed, compressedBlock.decompressedSize, ctx.alloc());
-                break;
-            case 0x02:
-                decompressed = CompressionMethod.NONE.decompress(compressedBlock.compressed, compressedBlock.decompressedSize, ctx.alloc());
-                break;
-            default:
-                throw new IllegalStateException("Unknown compression method [" + Integer.toHexString(compressedBlock.method) + "]");
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        removed = true;
+        discardAll();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (!(msg instanceof CompressedBlock)) {
+            if (!frames.isEmpty()) {
+                // should not overtake blocks, that are still decompressed
+                frames.add(new Frame(msg));
+            } else if (block != null) {
+                ReferenceCountUtil.release(msg);
+                fail(new DecoderException("Compressed block is not complete"));
+            } else {
+                ctx.fireChannelRead(msg);
+            }
+            return;
+        }
+
+        CompressedBlock compressedBlock = (CompressedBlock) msg;
+        // the first frame is scanned by its task, so block of one frame is also read in parallel
+        BlockScanner frameScanner = compressedBlock.continued ? null : new BlockScanner();
+        DecompressTask task = new DecompressTask(compressedBlock, ctx.alloc(), frameScanner);
+        Frame frame = new Frame(compressionGroup.next().submit(task), frameScanner);
+        frames.add(frame);
+
+        // never drains inline, so listener of already completed future does not reorder messages
+        frame.future.addListener(future -> ctx.executor().execute(this::drain));
+    }
+
+    private void drain() {
+        if (removed) {
+            return;
+        }
+
+        Frame frame;
+        boolean read = false;
+
+        while ((frame = frames.peek()) != null && frame.isDone()) {
+            frames.poll();
+
+            Object msg;
+            try {
+                msg = next(frame);
+            } catch (RuntimeException e) {
+                fail(e instanceof DecoderException ? (DecoderException) e : new DecoderException(e));
+                return;
+            }
+
+            if (msg != null) {
+                ctx.fireChannelRead(msg);
+                read = true;
+            }
+        }
+
+        if (read) {
+            ctx.fireChannelReadComplete();
+        }
+    }
+
+    // message to pass further, or null if frames of block are not complete yet
+    private Object next(Frame frame) {
+        if (frame.future == null) {
+            if (block != null) {
+                ReferenceCountUtil.release(frame.msg);
+                throw new DecoderException("Compressed block is not complete");
+            }
+            return frame.msg;
+        }
+        if (!frame.future.isSuccess()) {
+            throw new DecoderException(frame.future.cause());
+        }
+
+        Object decompressed = frame.future.getNow();
+        if (frame.scanner != null) {
+            if (block != null) {
+                ReferenceCountUtil.release(decompressed);
+                throw new DecoderException("Compressed block is not complete");
+            }
+            if (decompressed instanceof DataBlock) {
+                return blockDecompressed((DataBlock) decompressed);
+            }
+            block = (ByteBuf) decompressed;
+            scanner = frame.scanner;
+            return null;
+        }
+
+        ByteBuf data = (ByteBuf) decompressed;
+        try {
+            if (block == null) {
+                throw new DecoderException("Compressed frame does not continue any block");
+            }
+            if (block.writableBytes() < data.readableBytes()) {
+                // buffer of the first frame is not expandable, and joined one grows twice, so data is copied few times
+                ByteBuf joined = ctx.alloc().directBuffer(Math.max(block.readableBytes() * 2, block.readableBytes() + data.readableBytes()));
+                joined.writeBytes(block);
+                block.release();
+                block = joined;
+            }
+            block.writeBytes(data);
+        } finally {
+            data.release();
         }
 
+        if (!scanner.scan(block)) {
+            return null;
+        }
         try {
-            DataBlock block = ClickHousePacketDecoder.readBlock(ctx, decompressed);
-            out.add(block);
+            return blockDecompressed(readBlock(block));
         } finally {
-            ReferenceCountUtil.release(decompressed);
+            block.release();
+            block = null;
+            scanner = null;
+        }
+    }
+
+    private DataBlock blockDecompressed(DataBlock dataBlock) {
+        if (decoder != null) {
+            decoder.blockDecompressed();
+        }
+        return dataBlock;
+    }
+
+    private void fail(DecoderException e) {
+        discardAll();
+        ctx.fireExceptionCaught(e);
+    }
+
+    private void discardAll() {
+        ReferenceCountUtil.release(block);
+        block = null;
+        scanner = null;
+
+        Frame frame;
+        while ((frame = frames.poll()) != null) {
+            if (frame.future == null) {
+                ReferenceCountUtil.release(frame.msg);
+            } else {
+                // decompression may still be in progress
+                frame.future.addListener(future -> ReferenceCountUtil.release(future.getNow()));
+            }
+        }
+    }
+
+    // columns of block retain decompressed buffer
+    private static DataBlock readBlock(ByteBuf decompressed) {
+        DataBlock dataBlock = ClickHousePacketDecoder.readBlock(decompressed);
+        if (decompressed.isReadable()) {
+            dataBlock.release();
+            throw new DecoderException("Compressed frames hold more than one block");
+        }
+        return dataBlock;
+    }
+
+    private static final class Frame {
+        final Object msg;
+        // decompressed data block, or decompressed frame, that is joined with frames of the same block
+        final Future<Object> future;
+        // present for the first frame of block
+        final BlockScanner scanner;
+
+        Frame(Object msg) {
+            this.msg = msg;
+            this.future = null;
+            this.scanner = null;
+        }
+
+        Frame(Future<Object> future, BlockScanner scanner) {
+            this.msg = null;
+            this.future = future;
+            this.scanner = scanner;
+        }
+
+        boolean isDone() {
+            return future == null || future.isDone();
+        }
+    }
+
+    private static final class DecompressTask implements Callable<Object> {
+        private final CompressedBlock compressedBlock;
+        private final ByteBufAllocator alloc;
+        private final BlockScanner scanner;
+
+        DecompressTask(CompressedBlock compressedBlock, ByteBufAllocator alloc, BlockScanner scanner) {
+            this.compressedBlock = compressedBlock;
+            this.alloc = alloc;
+            this.scanner = scanner;
+        }
+
+        @Override
+        public Object call() {
+            ByteBuf decompressed = null;
+            try {
+                decompressed = method(compressedBlock.method)
+                        .decompress(compressedBlock.compressed, compressedBlock.decompressedSize, alloc);
+                if (scanner != null && scanner.scan(decompressed)) {
+                    return readBlock(decompressed);
+                }
+                // block continues in the next frames
+                return decompressed.retain();
+            } finally {
+                ReferenceCountUtil.release(decompressed);
+                compressedBlock.release();
+            }
+        }
+
+        private static CompressionMethod method(int method) {
+            switch (method) {
+                case 0x82:
+                    return CompressionMethod.LZ4;
+                case 0x90:
+                    return CompressionMethod.ZSTD;
+                case 0x02:
+                    return CompressionMethod.NONE;
+                default:
+                    throw new IllegalStateException("Unknown compression method [" + Integer.toHexString(method) + "]");
+            }
         }
     }
 }
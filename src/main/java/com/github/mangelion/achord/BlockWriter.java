@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017-2018 Mangelion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mangelion.achord;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Writes one item of upstream into columns of block, that is being built for insert.
+ *
+ * @since 17.10.2026
+ */
+@FunctionalInterface
+interface BlockWriter<T> {
+    /**
+     * @return number of written rows
+     */
+    int write(T item, RowWriter writer);
+
+    /**
+     * @return number of rows in every item, or 0 if it is known only after item is written (e.g. column batches),
+     * so items are requested by estimation of rows of already written ones
+     */
+    default int rowsPerItem() {
+        return 0;
+    }
+
+    // every item is one row written by binder
+    static <T> BlockWriter<T> rows(BiConsumer<? super T, RowWriter> binder) {
+        return new BlockWriter<>() {
+            @Override
+            public int write(T item, RowWriter writer) {
+                binder.accept(item, writer);
+                writer.endRow();
+                return 1;
+            }
+
+            @Override
+            public int rowsPerItem() {
+                return 1;
+            }
+        };
+    }
+}
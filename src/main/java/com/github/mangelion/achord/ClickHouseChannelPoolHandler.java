@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017-2018 Mangelion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.mangelion.achord;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.pool.ChannelPoolHandler;
+import io.netty.util.AttributeKey;
+
+import static com.github.mangelion.achord.AdaptiveCompression.ADAPTIVE_COMPRESSION_ATTRIBUTE;
+import static com.github.mangelion.achord.ClickHouseClient.BLOCK_COMPRESSOR;
+import static com.github.mangelion.achord.ClickHouseClient.BLOCK_DECOMPRESSOR;
+import static com.github.mangelion.achord.ClickHouseClient.BLOCK_ENCODER;
+import static com.github.mangelion.achord.ClickHouseClient.BLOCK_SENDER;
+import static com.github.mangelion.achord.ClickHouseClient.MESSAGE_HANDLER;
+import static com.github.mangelion.achord.ClickHouseClient.PACKET_DECODER;
+import static com.github.mangelion.achord.ClickHouseClient.PACKET_ENCODER;
+import static com.github.mangelion.achord.ClickHousePacketDecoder.CH_SERVER_COMPRESSION_LEVEL_ATTRIBUTE;
+import static com.github.mangelion.achord.ClickHousePacketDecoder.CH_SERVER_COMPRESSION_METHOD_ATTRIBUTE;
+import static com.github.mangelion.achord.ClickHousePacketEncoder.CLICK_HOUSE_PACKET_ENCODER;
+import static com.github.mangelion.achord.QueryContext.QUERY_CONTEXT_ATTR;
+
+/**
+ * Prepares pipeline for newly created channels and cleans up per-query state of channels returned to pool.
+ *
+ * @since 17.10.2026
+ */
+final class ClickHouseChannelPoolHandler implements ChannelPoolHandler {
+    static final AttributeKey<Long> LAST_RELEASED_ATTRIBUTE = AttributeKey.newInstance("LAST_RELEASED");
+    private final EventLoopGroup workersGroup;
+    private final EventLoopGroup compressionGroup;
+    private final Settings settings;
+
+    ClickHouseChannelPoolHandler(EventLoopGroup workersGroup, EventLoopGroup compressionGroup, Settings settings) {
+        this.workersGroup = workersGroup;
+        this.compressionGroup = compressionGroup;
+        this.settings = settings;
+    }
+
+    @Override
+    public void channelCreated(Channel ch) {
+        ChannelPipeline pipeline = ch.pipeline()
+                // decoders
+                .addFirst(PACKET_DECODER, new ClickHousePacketDecoder())
+                .addLast(workersGroup, MESSAGE_HANDLER, ClickHouseServerMessageHandler.CLICK_HOUSE_SERVER_MESSAGE_HANDLER)
+                // encoders
+                .addFirst(PACKET_ENCODER, CLICK_HOUSE_PACKET_ENCODER);
+
+        if (settings.isCompressionEnabled()) {
+            ch.attr(CH_SERVER_COMPRESSION_METHOD_ATTRIBUTE).set(settings.getNetworkCompressionMethod());
+            ch.attr(CH_SERVER_COMPRESSION_LEVEL_ATTRIBUTE).set(settings.getNetworkCompressionLevel());
+            if (settings.isAdaptiveCompression()) {
+                ch.attr(ADAPTIVE_COMPRESSION_ATTRIBUTE).set(new AdaptiveCompression(
+                        settings.getLz4HcCompressionLevel(), settings.getNetworkZstdCompressionLevel()));
+            }
+
+            pipeline.addFirst(compressionGroup, BLOCK_COMPRESSOR,
+                    new BlockCompressingHandler(compressionGroup, settings.getMaxCompressBlockSize()))
+                    .addAfter(compressionGroup, PACKET_DECODER, BLOCK_DECOMPRESSOR,
+                            new BlockDecompressingHandler(compressionGroup));
+        } else {
+            pipeline.addFirst(BLOCK_ENCODER, DataBlockEncoder.DATA_BLOCK_ENCODER);
+        }
+    }
+
+    @Override
+    public void channelAcquired(Channel ch) {
+    }
+
+    @Override
+    public void channelReleased(Channel ch) {
+        ch.attr(QUERY_CONTEXT_ATTR).set(null);
+        ch.attr(LAST_RELEASED_ATTRIBUTE).set(System.nanoTime());
+        ch.config().setAutoRead(true);
+
+        if (ch.pipeline().get(BLOCK_SENDER) != null) {
+            ch.pipeline().remove(BLOCK_SENDER);
+        }
+    }
+}
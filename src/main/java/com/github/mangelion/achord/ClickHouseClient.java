@@ -17,35 +17,75 @@
 package com.github.mangelion.achord;
 
 import com.github.mangelion.achord.Settings.SettingCompressionMethod;
+import com.github.mangelion.achord.Settings.SettingInt64;
+import com.github.mangelion.achord.internal.NetworkBootstrap;
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelInitializer;
 import io.netty.channel.DefaultEventLoopGroup;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.pool.AbstractChannelPoolMap;
+import io.netty.channel.pool.ChannelPool;
+import io.netty.channel.pool.FixedChannelPool;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.util.concurrent.Future;
 
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
-import static com.github.mangelion.achord.ClickHousePacketEncoder.CLICK_HOUSE_PACKET_ENCODER;
+import static com.github.mangelion.achord.PingHealthChecker.PING_HEALTH_CHECKER;
+import static com.github.mangelion.achord.Settings.MAX_COMPRESS_BLOCK_SIZE;
 import static com.github.mangelion.achord.Settings.NETWORK_COMPRESSION_METHOD;
-import static com.github.mangelion.achord.internal.NetworkBootstrap.tryNative;
+import static com.github.mangelion.achord.Settings.NETWORK_ZSTD_COMPRESSION_LEVEL;
+import static io.netty.channel.ChannelOption.ALLOCATOR;
+import static io.netty.channel.ChannelOption.SO_RCVBUF;
+import static io.netty.channel.ChannelOption.SO_SNDBUF;
 import static io.netty.channel.ChannelOption.TCP_NODELAY;
+import static io.netty.channel.ChannelOption.WRITE_BUFFER_WATER_MARK;
 
 /**
+ * Options of connections (compression, socket options, event loop groups, pool bounds) are applied
+ * once the first query creates connection pool, so they can not be changed afterwards.
+ *
  * @author Dmitriy Poluyanov
  * @since 10/02/2018
  */
 public final class ClickHouseClient implements AutoCloseable {
-    static final int COMPATIBLE_CLIENT_REVISION = 54327;
+    // server sends LowCardinality columns as is only to clients, that know this type
+    static final int COMPATIBLE_CLIENT_REVISION = ServerRevisions.DBMS_MIN_REVISION_WITH_LOW_CARDINALITY_TYPE;
     static final String PACKET_DECODER = "decoder";
     static final String BLOCK_ENCODER = "blockEncoder";
     static final String PACKET_ENCODER = "encoder";
+    static final String MESSAGE_HANDLER = "messageHandler";
+    static final String BLOCK_COMPRESSOR = "blockCompressor";
+    static final String BLOCK_DECOMPRESSOR = "blockDecompressor";
+    static final String BLOCK_SENDER = "reactiveBlockSender";
+    private static final int DEFAULT_MAX_CONNECTIONS = 8;
+    private static final int DEFAULT_WORKER_THREADS = 2;
+    private static final long DEFAULT_INSERT_BUFFER_POOL_BYTES = 128L * 1024 * 1024;
+    // blocks are megabytes in size, so default netty marks (32/64 KiB) switch writability after every frame
+    private static final WriteBufferWaterMark DEFAULT_WRITE_BUFFER_WATER_MARK =
+            new WriteBufferWaterMark(2 * 1024 * 1024, 8 * 1024 * 1024);
 
     private final Bootstrap b;
-    private final EventLoopGroup workersGroup;
-    private final EventLoopGroup compressionGroup;
+    // groups created by client itself, supplied groups are owned by caller
+    private final List<EventLoopGroup> ownGroups = new ArrayList<>();
+    private EventLoopGroup ioGroup;
+    private Class<? extends Channel> ioChannelClass;
+    // zero means default number of threads for transport
+    private int ioThreads;
+    private EventLoopGroup workersGroup;
+    private int workerThreads = DEFAULT_WORKER_THREADS;
+    private EventLoopGroup compressionGroup;
+    private int compressionThreads = Runtime.getRuntime().availableProcessors();
     private String database;
     private String username = database = "default";
     private String password = "";
@@ -53,28 +93,23 @@ public final class ClickHouseClient implements AutoCloseable {
     private Limits limits = new Limits();
     private CompressionMethod compressionMethod;
     private boolean strictNative = false;
+    private Transport[] transports = {Transport.EPOLL, Transport.IO_URING, Transport.KQUEUE, Transport.NIO};
+    private boolean epollTcpQuickAck;
+    private int epollBusyPollMicros;
+    private boolean epollEdgeTriggered = true;
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private long insertBufferPoolBytes = DEFAULT_INSERT_BUFFER_POOL_BYTES;
+    private ColumnBufferPool bufferPool;
+    // lazily created on first query, because all settings should be known before first connect
+    private Bootstrap pooledBootstrap;
+    private AbstractChannelPoolMap<SocketAddress, FixedChannelPool> pools;
 
     public ClickHouseClient() {
-        // todo make № of threads customizable, like whole group
-        workersGroup = new DefaultEventLoopGroup(2);
-        compressionGroup = new DefaultEventLoopGroup(2);
         b = new Bootstrap()
                 // defaults, can be overridden
                 .remoteAddress("localhost", 9000)
-                // todo make configurable, because on macosx there are no clashes with Nagle's Algorithm
                 .option(TCP_NODELAY, true)
-                .handler(new ChannelInitializer() {
-                    @Override
-                    protected void initChannel(Channel ch) {
-                        ch.pipeline()
-                                // decoders
-                                .addFirst(PACKET_DECODER, new ClickHousePacketDecoder())
-                                .addLast(workersGroup, "messageHandler", ClickHouseServerMessageHandler.CLICK_HOUSE_SERVER_MESSAGE_HANDLER)
-                                // encoders
-                                .addFirst(PACKET_ENCODER, CLICK_HOUSE_PACKET_ENCODER)
-                                .addFirst(BLOCK_ENCODER, DataBlockEncoder.DATA_BLOCK_ENCODER);
-                    }
-                });
+                .option(WRITE_BUFFER_WATER_MARK, DEFAULT_WRITE_BUFFER_WATER_MARK);
     }
 
     /**
@@ -92,30 +127,402 @@ public final class ClickHouseClient implements AutoCloseable {
     }
 
     public ClickHouseClient database(String database) {
+        checkNotConnected("database");
         this.database = database;
         return this;
     }
 
     public ClickHouseClient username(String username) {
+        checkNotConnected("username");
         this.username = username;
         return this;
     }
 
     public ClickHouseClient password(String password) {
+        checkNotConnected("password");
         this.password = password;
         return this;
     }
 
     public ClickHouseClient compression(CompressionMethod method) {
+        checkNotConnected("compression");
         this.settings.put(NETWORK_COMPRESSION_METHOD, new SettingCompressionMethod(method));
         return this;
     }
 
+    /**
+     * Chooses one of {@link CompressionMethod#LZ4}, {@link CompressionMethod#LZ4HC} or {@link CompressionMethod#ZSTD}
+     * for every compressed frame, depending on measured compression speed, ratio and pressure of channel outbound buffer.
+     * Server compresses its blocks with method set by {@link #compression(CompressionMethod)}, {@code LZ4} if it is not set.
+     *
+     * @param enabled {@code false} by default
+     * @return this client
+     */
+    public ClickHouseClient adaptiveCompression(boolean enabled) {
+        checkNotConnected("adaptiveCompression");
+        if (enabled && !settings.isCompressionEnabled()) {
+            compression(CompressionMethod.LZ4);
+        }
+        this.settings.setAdaptiveCompression(enabled);
+        return this;
+    }
+
+    /**
+     * Level for {@link CompressionMethod#ZSTD}, that is used by both client and server.
+     *
+     * @param level zstd compression level from 1 (fastest) to 22 (best compression)
+     * @return this client
+     */
+    public ClickHouseClient zstdCompressionLevel(int level) {
+        checkNotConnected("zstdCompressionLevel");
+        if (level < 1 || level > 22) {
+            throw new IllegalArgumentException("ZSTD compression level should be in range [1, 22], but got " + level);
+        }
+        this.settings.put(NETWORK_ZSTD_COMPRESSION_LEVEL, new SettingInt64(level));
+        return this;
+    }
+
+    /**
+     * Maximum size of uncompressed data in one compressed frame, the same setting is applied by server
+     * to blocks that it sends. Frames of one block are compressed in parallel.
+     *
+     * @param size size in bytes, 1 MiB by default
+     * @return this client
+     */
+    public ClickHouseClient maxCompressBlockSize(int size) {
+        checkNotConnected("maxCompressBlockSize");
+        if (size <= 0) {
+            throw new IllegalArgumentException("Max compress block size should be positive, but got " + size);
+        }
+        this.settings.put(MAX_COMPRESS_BLOCK_SIZE, new SettingInt64(size));
+        return this;
+    }
+
+    /**
+     * Level for {@link CompressionMethod#LZ4HC}, blocks are decompressed by server as ordinary LZ4,
+     * so level is applied only by client.
+     *
+     * @param level lz4hc compression level from 1 (fastest) to 17 (best compression)
+     * @return this client
+     */
+    public ClickHouseClient lz4HcCompressionLevel(int level) {
+        checkNotConnected("lz4HcCompressionLevel");
+        if (level < 1 || level > 17) {
+            throw new IllegalArgumentException("LZ4HC compression level should be in range [1, 17], but got " + level);
+        }
+        this.settings.setLz4HcCompressionLevel(level);
+        return this;
+    }
+
+    /**
+     * Maximum number of rows in one inserted block, block is sent as soon as it is filled.
+     *
+     * @param rows number of rows, 1048576 by default
+     * @return this client
+     */
+    public ClickHouseClient insertBlockRows(int rows) {
+        if (rows <= 0) {
+            throw new IllegalArgumentException("Insert block rows should be positive, but got " + rows);
+        }
+        this.settings.setInsertBlockRows(rows);
+        return this;
+    }
+
+    /**
+     * Maximum size of column data in one inserted block, bounds memory that is taken by blocks of wide rows.
+     *
+     * @param bytes size in bytes, 256 MiB by default
+     * @return this client
+     */
+    public ClickHouseClient insertBlockBytes(long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Insert block bytes should be positive, but got " + bytes);
+        }
+        this.settings.setInsertBlockBytes(bytes);
+        return this;
+    }
+
+    /**
+     * Maximum time that rows wait in block that is not filled yet, so slow streams are inserted with bounded latency.
+     * Every sent block is inserted by server as separate part, so too short linger produces many small parts.
+     *
+     * @param linger time after first row of block, 0 (wait until block is filled) by default
+     * @param unit   unit of linger time
+     * @return this client
+     */
+    public ClickHouseClient insertBlockLinger(long linger, TimeUnit unit) {
+        if (linger < 0) {
+            throw new IllegalArgumentException("Insert block linger should not be negative, but got " + linger);
+        }
+        this.settings.setInsertBlockLingerNanos(unit.toNanos(linger));
+        return this;
+    }
+
+    /**
+     * Maximum size of blocks of one insert, that are being built or sent at the same time.
+     * Actual window is tuned between one block and this size by speed of writing blocks to socket,
+     * so it shrinks on slow server and grows on fast link.
+     *
+     * @param bytes size in bytes, 128 MiB by default
+     * @return this client
+     */
+    public ClickHouseClient insertWindowBytes(long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Insert window bytes should be positive, but got " + bytes);
+        }
+        this.settings.setInsertWindowBytes(bytes);
+        return this;
+    }
+
+    /**
+     * Bounds total capacity of column buffers, that are kept after sent blocks for building of next blocks.
+     *
+     * @param bytes capacity in bytes, 128 MiB by default, 0 disables pooling
+     * @return this client
+     */
+    public ClickHouseClient insertBufferPoolBytes(long bytes) {
+        checkNotConnected("insertBufferPoolBytes");
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Insert buffer pool bytes should not be negative, but got " + bytes);
+        }
+        this.insertBufferPoolBytes = bytes;
+        return this;
+    }
+
+    /**
+     * Disables Nagle's algorithm, so small packets (e.g. ping or end of data) are sent without delay.
+     *
+     * @param noDelay {@code true} by default
+     * @return this client
+     */
+    public ClickHouseClient tcpNoDelay(boolean noDelay) {
+        checkNotConnected("tcpNoDelay");
+        b.option(TCP_NODELAY, noDelay);
+        return this;
+    }
+
+    /**
+     * Bounds of outbound buffer of connection, channel becomes unwritable after high mark is exceeded
+     * and blocks are not written until buffer is drained below low mark.
+     *
+     * @param low  low water mark in bytes, 2 MiB by default
+     * @param high high water mark in bytes, 8 MiB by default
+     * @return this client
+     */
+    public ClickHouseClient writeBufferWaterMark(int low, int high) {
+        checkNotConnected("writeBufferWaterMark");
+        b.option(WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(low, high));
+        return this;
+    }
+
+    /**
+     * Size of {@code SO_SNDBUF} of socket. Kernel tunes it automatically, if it is not set.
+     *
+     * @param bytes buffer size in bytes
+     * @return this client
+     */
+    public ClickHouseClient socketSendBufferSize(int bytes) {
+        checkNotConnected("socketSendBufferSize");
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Socket send buffer size should be positive, but got " + bytes);
+        }
+        b.option(SO_SNDBUF, bytes);
+        return this;
+    }
+
+    /**
+     * Size of {@code SO_RCVBUF} of socket. Kernel tunes it automatically, if it is not set.
+     *
+     * @param bytes buffer size in bytes
+     * @return this client
+     */
+    public ClickHouseClient socketReceiveBufferSize(int bytes) {
+        checkNotConnected("socketReceiveBufferSize");
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Socket receive buffer size should be positive, but got " + bytes);
+        }
+        b.option(SO_RCVBUF, bytes);
+        return this;
+    }
+
+    /**
+     * Allocator of connections, that allocates received blocks, column buffers of inserted blocks and compressed frames.
+     *
+     * @param allocator allocator, {@link ByteBufAllocator#DEFAULT} by default
+     * @return this client
+     */
+    public ClickHouseClient allocator(ByteBufAllocator allocator) {
+        checkNotConnected("allocator");
+        b.option(ALLOCATOR, Objects.requireNonNull(allocator));
+        return this;
+    }
+
     public ClickHouseClient strictNativeNetwork(boolean strictNative) {
+        checkNotConnected("strictNativeNetwork");
         this.strictNative = strictNative;
         return this;
     }
 
+    /**
+     * Order of preference of network transports, the first available one is used.
+     * Native transports are tried first by default: epoll, io_uring, kqueue and then NIO.
+     *
+     * @param transports transports in order of preference
+     * @return this client
+     */
+    public ClickHouseClient transports(Transport... transports) {
+        checkNotConnected("transports");
+        if (transports.length == 0) {
+            throw new IllegalArgumentException("At least one transport should be specified");
+        }
+        this.transports = transports.clone();
+        return this;
+    }
+
+    /**
+     * Enables {@code TCP_QUICKACK} for epoll transport, so acknowledgements are sent without delay.
+     *
+     * @param quickAck {@code false} by default
+     * @return this client
+     */
+    public ClickHouseClient epollTcpQuickAck(boolean quickAck) {
+        checkNotConnected("epollTcpQuickAck");
+        this.epollTcpQuickAck = quickAck;
+        return this;
+    }
+
+    /**
+     * Sets {@code SO_BUSY_POLL} for epoll transport, socket is polled for incoming data up to given time
+     * instead of waiting for interrupt, that lowers latency at the cost of CPU.
+     *
+     * @param micros busy polling timeout in microseconds, 0 (disabled) by default
+     * @return this client
+     */
+    public ClickHouseClient epollBusyPoll(int micros) {
+        checkNotConnected("epollBusyPoll");
+        if (micros < 0) {
+            throw new IllegalArgumentException("Busy poll timeout should not be negative, but got " + micros);
+        }
+        this.epollBusyPollMicros = micros;
+        return this;
+    }
+
+    /**
+     * Switches epoll transport between edge-triggered and level-triggered modes.
+     *
+     * @param edgeTriggered {@code true} (edge-triggered) by default
+     * @return this client
+     */
+    public ClickHouseClient epollEdgeTriggered(boolean edgeTriggered) {
+        checkNotConnected("epollEdgeTriggered");
+        this.epollEdgeTriggered = edgeTriggered;
+        return this;
+    }
+
+    /**
+     * Bounds number of simultaneously opened connections per server.
+     * Handshaken connections are kept in pool and reused by next queries,
+     * queries that exceed the bound wait for connection to be released.
+     *
+     * @param maxConnections maximum number of connections to one server
+     * @return this client
+     */
+    public ClickHouseClient maxConnections(int maxConnections) {
+        checkNotConnected("maxConnections");
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("maxConnections should be positive, but got " + maxConnections);
+        }
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    /**
+     * Number of threads of I/O group, that is created by client on first query and shared by all its connections.
+     * Ignored if I/O group is supplied with {@link #ioGroup(EventLoopGroup, Class)}.
+     *
+     * @param ioThreads number of threads, transport default (twice number of cores) if not set
+     * @return this client
+     */
+    public ClickHouseClient ioThreads(int ioThreads) {
+        checkNotConnected("ioThreads");
+        if (ioThreads <= 0) {
+            throw new IllegalArgumentException("ioThreads should be positive, but got " + ioThreads);
+        }
+        this.ioThreads = ioThreads;
+        return this;
+    }
+
+    /**
+     * Shares existing I/O group with client, e.g. group of application server.
+     * Group is not shut down on {@link #close()}.
+     *
+     * @param group        I/O event loop group
+     * @param channelClass class of socket channel, that is compatible with group
+     * @return this client
+     */
+    public ClickHouseClient ioGroup(EventLoopGroup group, Class<? extends Channel> channelClass) {
+        checkNotConnected("ioGroup");
+        this.ioGroup = Objects.requireNonNull(group);
+        this.ioChannelClass = Objects.requireNonNull(channelClass);
+        return this;
+    }
+
+    /**
+     * Number of threads, that handle server messages and feed subscribers.
+     * Ignored if group is supplied with {@link #workersGroup(EventLoopGroup)}.
+     *
+     * @param workerThreads number of threads, 2 by default
+     * @return this client
+     */
+    public ClickHouseClient workerThreads(int workerThreads) {
+        checkNotConnected("workerThreads");
+        if (workerThreads <= 0) {
+            throw new IllegalArgumentException("workerThreads should be positive, but got " + workerThreads);
+        }
+        this.workerThreads = workerThreads;
+        return this;
+    }
+
+    /**
+     * Shares existing group for handling of server messages. Group is not shut down on {@link #close()}.
+     *
+     * @param group event loop group
+     * @return this client
+     */
+    public ClickHouseClient workersGroup(EventLoopGroup group) {
+        checkNotConnected("workersGroup");
+        this.workersGroup = Objects.requireNonNull(group);
+        return this;
+    }
+
+    /**
+     * Number of threads, that compress and decompress frames of all connections.
+     * Ignored if group is supplied with {@link #compressionGroup(EventLoopGroup)}.
+     *
+     * @param compressionThreads number of threads, number of cores by default
+     * @return this client
+     */
+    public ClickHouseClient compressionThreads(int compressionThreads) {
+        checkNotConnected("compressionThreads");
+        if (compressionThreads <= 0) {
+            throw new IllegalArgumentException("compressionThreads should be positive, but got " + compressionThreads);
+        }
+        this.compressionThreads = compressionThreads;
+        return this;
+    }
+
+    /**
+     * Shares existing group for compression and decompression. Group is not shut down on {@link #close()}.
+     *
+     * @param group event loop group
+     * @return this client
+     */
+    public ClickHouseClient compressionGroup(EventLoopGroup group) {
+        checkNotConnected("compressionGroup");
+        this.compressionGroup = Objects.requireNonNull(group);
+        return this;
+    }
+
     public <T> Flow.Publisher<Void> sendData(String query, Flow.Publisher<T[]> source) {
         return this.sendData("", query, source);
     }
@@ -131,33 +538,168 @@ public final class ClickHouseClient implements AutoCloseable {
      * @return empty {@code <Void>} publisher that signals success or error after insert process ends
      */
     public <T> Flow.Publisher<Void> sendData(String queryId, String query, Flow.Publisher<T[]> source) {
+        return this.sendData(queryId, query, source, (row, writer) -> writer.writeObjects(row));
+    }
+
+    public <T> Flow.Publisher<Void> sendData(String query, Flow.Publisher<T> source, BiConsumer<? super T, RowWriter> binder) {
+        return this.sendData("", query, source, binder);
+    }
+
+    /**
+     * Reactive way for sending typed rows without boxing.
+     * Every row object from upstream is written by binder into blocks with primitive methods of {@link RowWriter},
+     * in order and types of columns of insert query.
+     *
+     * @param queryId CH query identifier
+     * @param query   CH query description of inserted data
+     * @param source  reactive data publisher
+     * @param binder  writes values of row object into columns
+     * @param <T>     type of row object
+     * @return empty {@code <Void>} publisher that signals success or error after insert process ends
+     */
+    public <T> Flow.Publisher<Void> sendData(String queryId, String query, Flow.Publisher<T> source,
+                                             BiConsumer<? super T, RowWriter> binder) {
+        return send(queryId, query, source, BlockWriter.rows(binder));
+    }
+
+    public Flow.Publisher<Void> sendColumns(String query, Flow.Publisher<ColumnBatch> source) {
+        return this.sendColumns("", query, source);
+    }
+
+    /**
+     * Reactive way for sending data, that is already in columnar form.
+     * Columns of every batch are copied into blocks in bulk, batches are merged into blocks as configured by {@link #insertBlockRows(int)}.
+     *
+     * @param queryId CH query identifier
+     * @param query   CH query description of inserted data
+     * @param source  reactive publisher of column batches
+     * @return empty {@code <Void>} publisher that signals success or error after insert process ends
+     */
+    public Flow.Publisher<Void> sendColumns(String queryId, String query, Flow.Publisher<ColumnBatch> source) {
+        return send(queryId, query, source, (batch, writer) -> writer.writeBatch(batch));
+    }
+
+    private <T> Flow.Publisher<Void> send(String queryId, String query, Flow.Publisher<T> source,
+                                          BlockWriter<? super T> blockWriter) {
         query += " FORMAT Native";
         AuthData authData = new AuthData(database, username, password);
         return new EmptyResponsePublisher<>(
-                prepareBootstrap(b, strictNative), workersGroup, compressionGroup, authData, queryId, query, settings, limits, source);
+                channelPool(), workersGroup, authData, queryId, query, settings, limits, source, blockWriter, bufferPool);
     }
 
-    private static Bootstrap prepareBootstrap(Bootstrap b, boolean strictNative) {
+    public Flow.Publisher<DataBlock> query(String query) {
+        return this.query("", query);
+    }
+
+    /**
+     * Reactive way for receiving query result.
+     * Blocks are streamed from server as subscriber requests them, so result is never buffered on heap in whole.
+     * Every received {@link DataBlock} is reference counted and should be released by subscriber.
+     *
+     * @param queryId CH query identifier
+     * @param query   CH query, e.g. {@code SELECT}
+     * @return publisher of result blocks that signals complete after server ends stream or error
+     */
+    public Flow.Publisher<DataBlock> query(String queryId, String query) {
+        AuthData authData = new AuthData(database, username, password);
+        return new DataBlockResponsePublisher(
+                channelPool(), workersGroup, authData, queryId, query, settings, limits);
+    }
+
+    private synchronized ChannelPool channelPool() {
+        if (pools == null) {
+            if (workersGroup == null) {
+                workersGroup = own(new DefaultEventLoopGroup(workerThreads));
+            }
+            if (compressionGroup == null) {
+                compressionGroup = own(new DefaultEventLoopGroup(compressionThreads));
+            }
+            bufferPool = new ColumnBufferPool(insertBufferPoolBytes);
+
+            Bootstrap bootstrap = pooledBootstrap = prepareBootstrap();
+            ClickHouseChannelPoolHandler handler = new ClickHouseChannelPoolHandler(workersGroup, compressionGroup, settings);
+            int max = maxConnections;
+
+            pools = new AbstractChannelPoolMap<>() {
+                @Override
+                protected FixedChannelPool newPool(SocketAddress remoteAddress) {
+                    // channel is pinged when it is acquired, so it is not checked once more on release
+                    return new FixedChannelPool(bootstrap.clone().remoteAddress(remoteAddress), handler,
+                            PING_HEALTH_CHECKER, null, -1, max, Integer.MAX_VALUE, false);
+                }
+            };
+        }
+
+        return pools.get(b.config().remoteAddress());
+    }
+
+    private synchronized void checkNotConnected(String option) {
+        if (pools != null) {
+            throw new IllegalStateException("Option " + option + " can not be changed after the first query");
+        }
+    }
+
+    // I/O group is created once and shared by connections to all servers
+    private Bootstrap prepareBootstrap() {
         Bootstrap clone = b.clone();
 
-        if (tryNative(clone)) {
+        if (ioGroup != null) {
+            clone.group(ioGroup)
+                    .channel(ioChannelClass);
+            if (NetworkBootstrap.isEpoll(ioChannelClass)) {
+                NetworkBootstrap.epollOptions(clone, epollTcpQuickAck, epollBusyPollMicros, epollEdgeTriggered);
+            }
             return clone;
-        } else if (strictNative) {
+        }
+
+        for (Transport transport : transports) {
+            if (transport == Transport.NIO) {
+                if (!strictNative) {
+                    return clone.group(own(new NioEventLoopGroup(ioThreads)))
+                            .channel(NioSocketChannel.class);
+                }
+            } else if (NetworkBootstrap.tryNative(clone, transport, ioThreads)) {
+                own(clone.config().group());
+                if (transport == Transport.EPOLL) {
+                    NetworkBootstrap.epollOptions(clone, epollTcpQuickAck, epollBusyPollMicros, epollEdgeTriggered);
+                }
+                return clone;
+            }
+        }
+
+        if (strictNative) {
             throw new IllegalStateException("Strict native network mode is enabled, " +
-                    "but attempt to enable native mode was failed");
+                    "but none of native transports " + Arrays.toString(transports) + " is available");
         } else {
-            // fallback to Java.NIO
-            return clone.group(new NioEventLoopGroup())
-                    .channel(NioSocketChannel.class);
+            throw new IllegalStateException("None of transports " + Arrays.toString(transports) + " is available");
         }
     }
 
+    private EventLoopGroup own(EventLoopGroup group) {
+        ownGroups.add(group);
+        return group;
+    }
+
     @Override
-    public void close() {
-        Future<?> configShutdown = b.config().group().shutdownGracefully();
-        Future<?> decompressingShutdown = workersGroup.shutdownGracefully();
+    public synchronized void close() {
+        if (pools != null) {
+            pools.close();
+            pools = null;
+        }
+
+        List<Future<?>> shutdowns = new ArrayList<>(ownGroups.size());
+        for (EventLoopGroup group : ownGroups) {
+            shutdowns.add(group.shutdownGracefully());
+        }
+        ownGroups.clear();
 
-        configShutdown.syncUninterruptibly();
-        decompressingShutdown.syncUninterruptibly();
+        for (Future<?> shutdown : shutdowns) {
+            shutdown.syncUninterruptibly();
+        }
+
+        if (bufferPool != null) {
+            bufferPool.clear();
+            bufferPool = null;
+        }
     }
 }
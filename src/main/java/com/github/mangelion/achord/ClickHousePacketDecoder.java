@@ -19,23 +19,66 @@ package com.github.mangelion.achord;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.DecoderException;
-import io.netty.handler.codec.ReplayingDecoder;
+import io.netty.handler.codec.ByteToMessageDecoder;
 import io.netty.util.AttributeKey;
-import io.netty.util.ReferenceCountUtil;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.List;
 
 import static com.github.mangelion.achord.ClickHousePacketDecoder.ServerProtocol.*;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
+ * Decodes server packets as soon as they are received completely.
+ * <p>
+ * Small packets are decoded only after their size is checked without reading, so incomplete packet costs one scan.
+ * Compressed frame of data packet is awaited by its header, that is read once, and uncompressed block is scanned
+ * from the last complete element, so decoding of large packets received by many reads stays linear.
+ * <p>
+ * Server cuts compressed block into frames of max_compress_block_size, and only decompressed data tells,
+ * whether the last frame completes block. Frames are decompressed by {@link BlockDecompressingHandler},
+ * so after a frame the next one is taken only if its checksum matches, and anything else waits
+ * until the handler reports that block is complete.
+ *
  * @author Dmitriy Poluyanov
  * @since 13/02/2018
  */
-final class ClickHousePacketDecoder extends ReplayingDecoder<Void> {
+final class ClickHousePacketDecoder extends ByteToMessageDecoder {
     static final AttributeKey<CompressionMethod> CH_SERVER_COMPRESSION_METHOD_ATTRIBUTE = AttributeKey.newInstance("CH_SERVER_COMPRESSION_METHOD_ATTRIBUTE");
     static final AttributeKey<Long> CH_SERVER_COMPRESSION_LEVEL_ATTRIBUTE = AttributeKey.newInstance("CH_SERVER_COMPRESSION_LEVEL_ATTRIBUTE");
     private static final AttributeKey<Long> CH_SERVER_REVISION_ATTRIBUTE = AttributeKey.newInstance("CH_SERVER_REVISION");
+    private static final int FRAME_HEADER_SIZE = CompressionMethod.HASH_SIZE + CompressionMethod.HEADER_SIZE;
+    // server does not write larger frames
+    private static final int MAX_FRAME_SIZE = 0x40000000;
+    private static final int MAX_VAR_UINT_SIZE = 10;
+
+    // states of decoder
+    private static final int PACKET = 0;
+    private static final int FRAME_HEADER = 1;
+    private static final int FRAME_BODY = 2;
+    private static final int BLOCK = 3;
+    // either the next frame of compressed block or the next packet
+    private static final int FRAME_NEXT = 4;
+
+    // steps of scanning of uncompressed block
+    private static final int SCAN_BLOCK_HEADER = 0;
+    private static final int SCAN_COLUMN_HEADER = 1;
+    private static final int SCAN_COLUMN_DATA = 2;
+    // number of values of stream is serialized before them
+    private static final int COUNTED = -1;
+
+    private ChannelHandlerContext ctx;
+    private int state = PACKET;
+    // header of compressed frame, that is being awaited
+    private int compressionMethod;
+    private int compressedSize;
+    private int decompressedSize;
+    private boolean frameContinued;
+    // compressed blocks, whose frames are being received, and ones, that are decompressed completely
+    private long compressedBlocks;
+    private long decompressedBlocks;
+    private final BlockScanner scanner = new BlockScanner();
 
     static long readVarUInt(ByteBuf buf) {
         return LEB128Encoding.getLong(buf);
@@ -44,15 +87,13 @@ final class ClickHousePacketDecoder extends ReplayingDecoder<Void> {
     static String readStringBinary(ByteBuf buf) {
         int length = (int) readVarUInt(buf);
 
-        ByteBuf stringBuf = buf.readBytes(length);
-        try {
-            return stringBuf.toString(UTF_8);
-        } finally {
-            ReferenceCountUtil.release(stringBuf);
-        }
+        // decoded in place, without copying into temporary buffer
+        String string = buf.toString(buf.readerIndex(), length, UTF_8);
+        buf.skipBytes(length);
+        return string;
     }
 
-    static DataBlock readBlock(ChannelHandlerContext ctx, ByteBuf in) {
+    static DataBlock readBlock(ByteBuf in) {
         BlockInfo info = new BlockInfo();
         info.read(in);
 
@@ -62,61 +103,451 @@ final class ClickHousePacketDecoder extends ReplayingDecoder<Void> {
         ColumnWithTypeAndName[] cs = new ColumnWithTypeAndName[columns];
         for (int i = 0; i < columns; i++) {
             String columnName = readStringBinary(in);
-            byte type = ColumnType.valueOf(readStringBinary(in));
+            ColumnWithTypeAndName column = ColumnType.column(columnName, readStringBinary(in));
 
-            ColumnWithTypeAndName column = cs[i] = new ColumnWithTypeAndName(type, columnName, ctx.alloc().directBuffer());
-
-            if (rows > 0) {
-                ColumnType.read(type, in, column.data, rows);
-            }
+            // column shares memory with received block
+            cs[i] = rows > 0 ? ColumnType.read(column, in, rows) : column;
         }
 
         return new DataBlock(info, cs, rows);
     }
 
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        switch (state) {
+            case PACKET:
+                decodePacket(ctx, in, out);
+                break;
+            case FRAME_HEADER:
+            case FRAME_BODY:
+                decodeFrame(in, out);
+                break;
+            case FRAME_NEXT:
+                decodeNextFrame(ctx, in, out);
+                break;
+            case BLOCK:
+                if (scanner.scan(in)) {
+                    state = PACKET;
+                    out.add(readBlock(in));
+                }
+                break;
+            default:
+                fail("Unknown decoder state [" + state + "]");
+        }
+    }
+
+    /**
+     * Called by {@link BlockDecompressingHandler}, when decompressed frames hold complete block,
+     * so packet after the last frame of block is decoded even if nothing else is received.
+     */
+    void blockDecompressed() {
+        // never decodes inline, so handler passes the block before the next packet
+        ctx.executor().execute(this::decodeAfterBlock);
+    }
+
+    private void decodeAfterBlock() {
+        decompressedBlocks++;
+        if (state != FRAME_NEXT || decompressedBlocks != compressedBlocks || ctx.isRemoved()) {
+            return;
+        }
+
+        state = PACKET;
+        ByteBuf in = internalBuffer();
+        if (!in.isReadable()) {
+            return;
+        }
+        List<Object> out = new ArrayList<>();
+        try {
+            callDecode(ctx, in, out);
+        } catch (Throwable e) {
+            ctx.fireExceptionCaught(e);
+        } finally {
+            for (Object msg : out) {
+                ctx.fireChannelRead(msg);
+            }
+            ctx.fireChannelReadComplete();
+        }
+    }
+
+    private void decodePacket(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        int end = packetEnd(ctx, in);
+        if (end < 0) {
+            return;
+        }
+
         byte msgId = (byte) readVarUInt(in);
         switch (msgId) {
             case HELLO_MSG_ID:
-                // small message so most of time it not breaks onto different parts
-                Object sm = readHelloMsg(in, ctx);
-                out.add(sm);
+                out.add(readHelloMsg(in, ctx));
                 break;
             case DATA_MSG_ID:
+            // totals and extremes are passed like ordinary blocks in the end of result, as Native format does
+            case TOTALS_MSG_ID:
+            case EXTREMES_MSG_ID:
                 String external_table_name = readStringBinary(in);
                 CompressionMethod method = ctx.channel().attr(CH_SERVER_COMPRESSION_METHOD_ATTRIBUTE).get();
 
                 if (method != null) {
-                    long t1 = in.readLongLE();
-                    long t2 = in.readLongLE();
-
-                    int compressionMethod = in.readByte() & 0xff;
-                    int compressedSize = in.readIntLE();
-                    int decompressedSize = in.readIntLE();
-
-                    assert checkChecksum(t1, t2,
-                            in.slice(in.readerIndex() - CompressionMethod.HEADER_SIZE, compressedSize),
-                            compressedSize);
-
-                    // because we know block size we can decode block in more efficient way in next handler (and on another event loop group)
-                    ByteBuf compressed = in.readBytes(compressedSize - CompressionMethod.HEADER_SIZE);
-
-                    CompressedBlock compressedBlock = new CompressedBlock(compressionMethod, compressed, decompressedSize);
-                    out.add(compressedBlock);
+                    compressedBlocks++;
+                    frameContinued = false;
+                    state = FRAME_HEADER;
+                    decodeFrame(in, out);
                 } else {
-                    // inefficient reading attempts for uncompressed blocks
-                    DataBlock dataBlock = readBlock(ctx, in);
-                    out.add(dataBlock);
+                    scanner.reset();
+                    state = BLOCK;
+                    if (scanner.scan(in)) {
+                        state = PACKET;
+                        out.add(readBlock(in));
+                    }
                 }
                 break;
             case EXCEPTION_MSG_ID:
                 ClickHouseServerException e = readException(in);
                 out.add(e);
                 break;
+            case PROGRESS_MSG_ID:
+                skipProgress(in);
+                break;
+            case PONG_MSG_ID:
+                out.add(PongMessage.PONG_MESSAGE);
+                break;
             case END_OF_STREAM_MSG_ID:
                 out.add(EndOfStreamMessage.END_OF_STREAM_MESSAGE);
                 break;
+            case PROFILE_INFO_MSG_ID:
+                skipProfileInfo(in);
+                break;
+            default:
+                fail("Unknown packet [" + msgId + "] from server");
+        }
+    }
+
+    // end of packet, or of its header for data packets, or -1 if packet is not received completely
+    private int packetEnd(ChannelHandlerContext ctx, ByteBuf in) {
+        int index = in.readerIndex();
+        int next = skipVarUInt(in, index);
+        if (next < 0) {
+            return -1;
+        }
+
+        byte msgId = (byte) getVarUInt(in, index);
+        switch (msgId) {
+            case HELLO_MSG_ID:
+                next = skipStringBinary(in, next);
+                next = skipVarUInt(in, next);
+                next = skipVarUInt(in, next);
+                int revision = next;
+                next = skipVarUInt(in, next);
+                long serverRevision = next >= 0 ? getVarUInt(in, revision) : 0;
+                if (serverRevision >= ServerRevisions.DBMS_MIN_REVISION_WITH_SERVER_TIMEZONE) {
+                    next = skipStringBinary(in, next);
+                }
+                if (serverRevision >= ServerRevisions.DBMS_MIN_REVISION_WITH_SERVER_DISPLAY_NAME) {
+                    next = skipStringBinary(in, next);
+                }
+                if (serverRevision >= ServerRevisions.DBMS_MIN_REVISION_WITH_VERSION_PATCH) {
+                    next = skipVarUInt(in, next);
+                }
+                return next;
+            case DATA_MSG_ID:
+            case TOTALS_MSG_ID:
+            case EXTREMES_MSG_ID:
+                return skipStringBinary(in, next);
+            case EXCEPTION_MSG_ID:
+                return exceptionEnd(in, next);
+            case PROGRESS_MSG_ID:
+                return skipVarUInt(in, skipVarUInt(in, skipVarUInt(in, next)));
+            case PROFILE_INFO_MSG_ID:
+                next = skipVarUInt(in, skipVarUInt(in, skipVarUInt(in, next)));
+                next = skipVarUInt(in, skip(in, next, 1));
+                return skip(in, next, 1);
+            default:
+                // pong, end of stream, or unknown packet that is failed by decoding
+                return next;
+        }
+    }
+
+    private int exceptionEnd(ByteBuf in, int index) {
+        int next = skip(in, index, 4);
+        next = skipStringBinary(in, next);
+        next = skipStringBinary(in, next);
+        next = skipStringBinary(in, next);
+        next = skip(in, next, 1);
+        if (next < 0) {
+            return -1;
+        }
+        return in.getBoolean(next - 1) ? exceptionEnd(in, next) : next;
+    }
+
+    private void decodeFrame(ByteBuf in, List<Object> out) {
+        if (state == FRAME_HEADER) {
+            if (in.readableBytes() < FRAME_HEADER_SIZE) {
+                return;
+            }
+
+            // header is read once and consumed together with frame, so checksum covers it
+            int index = in.readerIndex() + CompressionMethod.HASH_SIZE;
+            compressionMethod = in.getByte(index) & 0xff;
+            compressedSize = in.getIntLE(index + 1);
+            decompressedSize = in.getIntLE(index + 5);
+            if (compressedSize < CompressionMethod.HEADER_SIZE || decompressedSize < 0) {
+                fail("Corrupted header of compressed frame, size " + compressedSize);
+            }
+            state = FRAME_BODY;
+
+            int missing = CompressionMethod.HASH_SIZE + compressedSize - in.readableBytes();
+            // cumulation grows once up to the size of frame instead of growing by every read
+            if (missing > 0 && in.refCnt() == 1 && !in.isReadOnly()) {
+                in.ensureWritable(missing);
+            }
+        }
+
+        if (in.readableBytes() < CompressionMethod.HASH_SIZE + compressedSize) {
+            return;
+        }
+
+        long t1 = in.readLongLE();
+        long t2 = in.readLongLE();
+
+        assert checkChecksum(t1, t2, in.slice(in.readerIndex(), compressedSize), compressedSize);
+
+        in.skipBytes(CompressionMethod.HEADER_SIZE);
+        // because we know block size we can decode block in more efficient way in next handler (and on another event loop group),
+        // frame shares memory with cumulation, that is copied by cumulator only if next read should be merged with it
+        ByteBuf compressed = in.readRetainedSlice(compressedSize - CompressionMethod.HEADER_SIZE);
+
+        state = FRAME_NEXT;
+        out.add(new CompressedBlock(compressionMethod, compressed, decompressedSize, frameContinued));
+    }
+
+    private void decodeNextFrame(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        if (decompressedBlocks == compressedBlocks) {
+            // handler has already found the end of block
+            state = PACKET;
+            decodePacket(ctx, in, out);
+            return;
+        }
+
+        if (in.readableBytes() < FRAME_HEADER_SIZE) {
+            return;
+        }
+        int index = in.readerIndex() + CompressionMethod.HASH_SIZE;
+        int size = in.getIntLE(index + 1);
+        int decompressed = in.getIntLE(index + 5);
+        boolean frame = (in.getByte(index) & 0xff) == compressionMethod
+                && size >= CompressionMethod.HEADER_SIZE && size <= MAX_FRAME_SIZE
+                && decompressed >= 0 && decompressed <= MAX_FRAME_SIZE;
+        if (frame) {
+            if (in.readableBytes() < CompressionMethod.HASH_SIZE + size) {
+                // may be the next frame, that is not received yet, or the next packet, until block is decompressed
+                return;
+            }
+            UInt128 hash = CityHash_v1_0_2.CityHash128(in.slice(index, size), size);
+            frame = hash.first == in.getLongLE(in.readerIndex()) && hash.second == in.getLongLE(in.readerIndex() + 8);
+        }
+
+        if (frame) {
+            frameContinued = true;
+            state = FRAME_HEADER;
+            decodeFrame(in, out);
+        } else {
+            // bytes are not a frame, so block is complete, that is checked by handler after decompression
+            state = PACKET;
+            decodePacket(ctx, in, out);
+        }
+    }
+
+    /**
+     * Scans uncompressed block without reading, continuing from the last completely received element.
+     */
+    static final class BlockScanner {
+        // progress of scanning, that is relative to start of block
+        private int scanStep;
+        private int scanOffset;
+        private int scanColumns;
+        private int scanRows;
+        private int scanColumn;
+        // streams of column, that are not scanned yet, head is being scanned
+        private final ArrayDeque<ScanStream> scanStreams = new ArrayDeque<>();
+        private int scanValues;
+
+        void reset() {
+            scanStep = SCAN_BLOCK_HEADER;
+            scanOffset = 0;
+        }
+
+        /**
+         * @param in block from its reader index, that may grow between calls
+         * @return true if block is received completely
+         */
+        boolean scan(ByteBuf in) {
+            int start = in.readerIndex();
+            for (; ; ) {
+                int index = start + scanOffset;
+                int next;
+                switch (scanStep) {
+                    case SCAN_BLOCK_HEADER:
+                        // block info is fixed: field 1, is_overflows, field 2, bucket_num and terminating field 0
+                        int columns = skip(in, index, 8);
+                        int rows = skipVarUInt(in, columns);
+                        next = skipVarUInt(in, rows);
+                        if (next < 0) {
+                            return false;
+                        }
+                        scanColumns = (int) getVarUInt(in, columns);
+                        scanRows = (int) getVarUInt(in, rows);
+                        scanColumn = 0;
+                        scanStep = SCAN_COLUMN_HEADER;
+                        break;
+                    case SCAN_COLUMN_HEADER:
+                        if (scanColumn == scanColumns) {
+                            return true;
+                        }
+                        int type = skipStringBinary(in, index);
+                        next = skipStringBinary(in, type);
+                        if (next < 0) {
+                            return false;
+                        }
+                        int typeLength = (int) getVarUInt(in, type);
+                        ColumnWithTypeAndName column = ColumnType.column("", in.toString(next - typeLength, typeLength, UTF_8));
+                        scanStreams.clear();
+                        scanStreams.add(new ScanStream(column, scanRows, 0));
+                        if (scanRows > 0 && ColumnType.prefixLength(column) > 0) {
+                            // keys version of LowCardinality precedes all streams of non-empty column
+                            scanStreams.push(new ScanStream(null, 1, ColumnType.prefixLength(column)));
+                        }
+                        scanValues = 0;
+                        scanStep = SCAN_COLUMN_DATA;
+                        break;
+                    case SCAN_COLUMN_DATA:
+                        ScanStream stream = scanStreams.peek();
+                        if (stream == null) {
+                            next = index;
+                            scanColumn++;
+                            scanStep = SCAN_COLUMN_HEADER;
+                            break;
+                        }
+
+                        if (stream.width == 0 && stream.column.type == ColumnType.NULLABLE) {
+                            // null map precedes values
+                            scanStreams.poll();
+                            scanStreams.push(new ScanStream(stream.column.nested, stream.count, 0));
+                            scanStreams.push(new ScanStream(null, stream.count, 1));
+                            next = index;
+                            break;
+                        }
+                        if (stream.count == COUNTED) {
+                            // number of values precedes them
+                            next = skip(in, index, 8);
+                            if (next < 0) {
+                                return false;
+                            }
+                            scanStreams.poll();
+                            scanStreams.push(new ScanStream(stream.column, (int) in.getLongLE(index), stream.width));
+                            break;
+                        }
+                        if (stream.width == 0 && stream.column.type == ColumnType.LOW_CARDINALITY) {
+                            if (stream.count == 0) {
+                                // nothing is written for empty column
+                                scanStreams.poll();
+                                next = index;
+                                break;
+                            }
+                            next = skip(in, index, 8);
+                            if (next < 0) {
+                                return false;
+                            }
+                            scanStreams.poll();
+                            long flags = in.getLongLE(index);
+                            // keys of dictionary precede indexes
+                            scanStreams.push(new ScanStream(null, COUNTED, ColumnType.indexWidth(flags)));
+                            if (ColumnType.hasAdditionalKeys(flags)) {
+                                scanStreams.push(new ScanStream(stream.column.nested, COUNTED, 0));
+                            }
+                            break;
+                        }
+                        if (stream.width == 0 && stream.column.type == ColumnType.ARRAY) {
+                            // offsets precede values, their number is known only from the last offset
+                            scanStreams.poll();
+                            scanStreams.push(new ScanStream(stream.column, stream.count, 8));
+                            next = index;
+                            break;
+                        }
+
+                        int width = stream.width > 0 ? stream.width : ColumnType.width(stream.column.type);
+                        if (width > 0) {
+                            next = skip(in, index, width * stream.count);
+                            if (next < 0) {
+                                return false;
+                            }
+                        } else {
+                            next = index;
+                            // strings are scanned one by one, so scanning is continued from the last complete one
+                            while (scanValues < stream.count) {
+                                int value = skipStringBinary(in, next);
+                                if (value < 0) {
+                                    scanOffset = next - start;
+                                    return false;
+                                }
+                                next = value;
+                                scanValues++;
+                            }
+                        }
+                        scanStreams.poll();
+                        scanValues = 0;
+                        if (stream.width == 8 && stream.column != null && stream.count > 0) {
+                            scanStreams.push(new ScanStream(stream.column.nested, (int) in.getLongLE(next - 8), 0));
+                        }
+                        break;
+                    default:
+                        throw new DecoderException("Unknown scan step [" + scanStep + "]");
+                }
+                scanOffset = next - start;
+            }
+        }
+    }
+
+    // index after n bytes, or -1 if they are not received
+    private static int skip(ByteBuf in, int index, int n) {
+        return index >= 0 && in.writerIndex() - index >= n ? index + n : -1;
+    }
+
+    // index after variable length integer, or -1 if it is not received completely
+    private static int skipVarUInt(ByteBuf in, int index) {
+        if (index < 0) {
+            return -1;
+        }
+        int end = Math.min(in.writerIndex(), index + MAX_VAR_UINT_SIZE);
+        for (int i = index; i < end; i++) {
+            if ((in.getByte(i) & 0x80) == 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipStringBinary(ByteBuf in, int index) {
+        int next = skipVarUInt(in, index);
+        if (next < 0) {
+            return -1;
+        }
+        long end = next + getVarUInt(in, index);
+        return end <= in.writerIndex() ? (int) end : -1;
+    }
+
+    private static long getVarUInt(ByteBuf in, int index) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.getByte(index++);
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
         }
     }
 
@@ -136,6 +567,21 @@ final class ClickHousePacketDecoder extends ReplayingDecoder<Void> {
         return e;
     }
 
+    private void skipProgress(ByteBuf buf) {
+        readVarUInt(buf); // rows
+        readVarUInt(buf); // bytes
+        readVarUInt(buf); // total rows
+    }
+
+    private void skipProfileInfo(ByteBuf buf) {
+        readVarUInt(buf); // rows
+        readVarUInt(buf); // blocks
+        readVarUInt(buf); // bytes
+        buf.readBoolean(); // applied limit
+        readVarUInt(buf); // rows before limit
+        buf.readBoolean(); // calculated rows before limit
+    }
+
     private boolean checkChecksum(long t1, long t2, ByteBuf in, int length) {
         UInt128 hash = CityHash_v1_0_2.CityHash128(in, length);
 
@@ -161,18 +607,42 @@ final class ClickHousePacketDecoder extends ReplayingDecoder<Void> {
 
         ctx.channel().attr(CH_SERVER_REVISION_ATTRIBUTE).setIfAbsent(serverRevision);
 
+        String serverTimezone = null;
         if (serverRevision >= ServerRevisions.DBMS_MIN_REVISION_WITH_SERVER_TIMEZONE) {
-            String serverTimezone = readStringBinary(in);
-            return new ClickHouseServerInfo(serverName, serverVersionMajor, serverVersionMinor, serverRevision, serverTimezone);
+            serverTimezone = readStringBinary(in);
+        }
+        if (serverRevision >= ServerRevisions.DBMS_MIN_REVISION_WITH_SERVER_DISPLAY_NAME) {
+            readStringBinary(in); // display name
+        }
+        if (serverRevision >= ServerRevisions.DBMS_MIN_REVISION_WITH_VERSION_PATCH) {
+            readVarUInt(in); // version patch
         }
 
-        return new ClickHouseServerInfo(serverName, serverVersionMajor, serverVersionMinor, serverRevision);
+        return new ClickHouseServerInfo(serverName, serverVersionMajor, serverVersionMinor, serverRevision, serverTimezone);
     }
 
     static class ServerProtocol {
         static final byte HELLO_MSG_ID = 0x00;
         static final byte DATA_MSG_ID = 0x01;
         static final byte EXCEPTION_MSG_ID = 0x02;
+        static final byte PROGRESS_MSG_ID = 0x03;
+        static final byte PONG_MSG_ID = 0x04;
         static final byte END_OF_STREAM_MSG_ID = 0x05;
+        static final byte PROFILE_INFO_MSG_ID = 0x06;
+        static final byte TOTALS_MSG_ID = 0x07;
+        static final byte EXTREMES_MSG_ID = 0x08;
+    }
+
+    // values of column, or fixed width values of null map, offsets of array column, LowCardinality prefix or indexes
+    private static final class ScanStream {
+        final ColumnWithTypeAndName column;
+        final int count;
+        final int width;
+
+        ScanStream(ColumnWithTypeAndName column, int count, int width) {
+            this.column = column;
+            this.count = count;
+            this.width = width;
+        }
     }
 }
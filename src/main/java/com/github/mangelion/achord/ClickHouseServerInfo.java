@@ -16,11 +16,15 @@
 
 package com.github.mangelion.achord;
 
+import io.netty.util.AttributeKey;
+
 /**
  * @author Dmitriy Poluyanov
  * @since 25.12.2017
  */
 final class ClickHouseServerInfo implements ServerMessage {
+    // handshake result, that is kept by pooled channel for next queries
+    static final AttributeKey<ClickHouseServerInfo> CH_SERVER_INFO_ATTRIBUTE = AttributeKey.newInstance("CH_SERVER_INFO");
     final long serverRevision;
     private final String serverName;
     private final long serverVersionMajor;
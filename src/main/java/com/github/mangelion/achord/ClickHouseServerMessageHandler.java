@@ -19,6 +19,9 @@ package com.github.mangelion.achord;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+
+import java.nio.channels.ClosedChannelException;
 
 /**
  * @author Dmitriy Poluyanov
@@ -36,17 +39,21 @@ final class ClickHouseServerMessageHandler extends ChannelInboundHandlerAdapter
         if (msg instanceof DataBlock || msg instanceof ServerMessage || msg instanceof ClickHouseServerException) {
             QueryContext queryContext = ctx.channel().attr(QueryContext.QUERY_CONTEXT_ATTR).get();
             if (queryContext == null) {
+                ReferenceCountUtil.release(msg);
                 throw new RuntimeException("Query context is not set");
             }
 
             if (msg instanceof DataBlock) {
-                DataBlock dataBlock = (DataBlock) msg;
-                dataBlock.retain();
-                queryContext.onDataBlockReceived(dataBlock);
+                // ownership of block is passed to context
+                queryContext.onDataBlockReceived((DataBlock) msg);
             } else if (msg instanceof ClickHouseServerInfo) {
-                queryContext.onClickHouseServerInfoReceived((ClickHouseServerInfo) msg);
+                ClickHouseServerInfo serverInfo = (ClickHouseServerInfo) msg;
+                ctx.channel().attr(ClickHouseServerInfo.CH_SERVER_INFO_ATTRIBUTE).set(serverInfo);
+                queryContext.onClickHouseServerInfoReceived(serverInfo);
             } else if (msg == EndOfStreamMessage.END_OF_STREAM_MESSAGE) {
                 queryContext.onEndOfStream();
+            } else if (msg == PongMessage.PONG_MESSAGE) {
+                queryContext.onPongReceived();
             } else if (msg instanceof ClickHouseServerException) {
                 queryContext.onServerExceptionCaught((ClickHouseServerException) msg);
                 ctx.channel().close();
@@ -56,10 +63,22 @@ final class ClickHouseServerMessageHandler extends ChannelInboundHandlerAdapter
         }
     }
 
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        // context is cleared for idle channels in pool, so only broken queries are notified
+        QueryContext context = ctx.channel().attr(QueryContext.QUERY_CONTEXT_ATTR).get();
+        if (context != null) {
+            context.onChannelExceptionCaught(new ClosedChannelException());
+        }
+        super.channelInactive(ctx);
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
         QueryContext context = ctx.channel().attr(QueryContext.QUERY_CONTEXT_ATTR).get();
-        context.onChannelExceptionCaught(cause);
+        if (context != null) {
+            context.onChannelExceptionCaught(cause);
+        }
         ctx.channel().close();
     }
 }
@@ -29,8 +29,9 @@ abstract class ClientMessage {
         LEB128Encoding.putLong(buf, value);
     }
 
+    // size is in bytes, so it differs from length for non-ASCII strings
     static void writeStringBinary(ByteBuf buf, CharSequence charSequence) {
-        writeVarUInt(buf, charSequence.length());
+        writeVarUInt(buf, ByteBufUtil.utf8Bytes(charSequence));
         ByteBufUtil.writeUtf8(buf, charSequence);
     }
 
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2017-2018 Mangelion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mangelion.achord;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Objects;
+
+/**
+ * Batch of rows in columnar form, e.g. arrays that come from Arrow or Parquet readers.
+ * Columns are added in order and types of columns of insert query, each column should contain at least
+ * {@code rows} values, only the first {@code rows} values are sent.
+ * <pre>{@code
+ * new ColumnBatch(rows, 3)
+ *         .uint64(ids)
+ *         .string(codes, dictionary)
+ *         .date(epochDays)
+ * }</pre>
+ * Nullable columns take values of nested type, optionally followed by {@link #nulls(BitSet)}.
+ * Array columns take flat elements with offsets of rows, e.g. {@code .array(offsets, tags)}.
+ * LowCardinality(String) columns take strings, dictionary of {@link #string(int[], CharSequence[])}
+ * is looked up in dictionary of block once per its value.
+ * Arrays are copied into block in bulk, so they can be reused as soon as batch is passed to upstream subscriber
+ * and {@code onNext} returns.
+ *
+ * @since 17.10.2026
+ */
+public final class ColumnBatch {
+    // type of column, that is already encoded, it is not checked against type of inserted column
+    static final byte RAW = -1;
+    final int rows;
+    final byte[] types;
+    final Object[] values;
+    // only for dictionary encoded strings
+    final CharSequence[][] dictionaries;
+    // null flags of Nullable columns, as words of bitmap
+    final long[][] nulls;
+    // only for Array columns, start of values of every row and end of the last one
+    final int[][] offsets;
+    int columns;
+
+    public ColumnBatch(int rows, int columns) {
+        if (rows < 0 || columns < 0) {
+            throw new IllegalArgumentException("Rows and columns should not be negative, but got " + rows + ", " + columns);
+        }
+        this.rows = rows;
+        this.types = new byte[columns];
+        this.values = new Object[columns];
+        this.dictionaries = new CharSequence[columns][];
+        this.nulls = new long[columns][];
+        this.offsets = new int[columns][];
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public ColumnBatch int8(byte[] values) {
+        return add(ColumnType.INT_8, values, values.length);
+    }
+
+    public ColumnBatch uint8(byte[] values) {
+        return add(ColumnType.U_INT_8, values, values.length);
+    }
+
+    public ColumnBatch int16(short[] values) {
+        return add(ColumnType.INT_16, values, values.length);
+    }
+
+    public ColumnBatch uint16(short[] values) {
+        return add(ColumnType.U_INT_16, values, values.length);
+    }
+
+    public ColumnBatch int32(int[] values) {
+        return add(ColumnType.INT_32, values, values.length);
+    }
+
+    public ColumnBatch uint32(int[] values) {
+        return add(ColumnType.U_INT_32, values, values.length);
+    }
+
+    public ColumnBatch int64(long[] values) {
+        return add(ColumnType.INT_64, values, values.length);
+    }
+
+    public ColumnBatch uint64(long[] values) {
+        return add(ColumnType.U_INT_64, values, values.length);
+    }
+
+    public ColumnBatch float32(float[] values) {
+        return add(ColumnType.FLOAT_32, values, values.length);
+    }
+
+    public ColumnBatch float64(double[] values) {
+        return add(ColumnType.FLOAT_64, values, values.length);
+    }
+
+    /**
+     * Values of Decimal column of any precision, they are narrowed to Decimal32 or sign-extended to Decimal128.
+     *
+     * @param unscaled values multiplied by 10^scale of column, e.g. 12345 for 123.45 of Decimal(9, 2)
+     * @return this batch
+     */
+    public ColumnBatch decimal(long[] unscaled) {
+        return add(ColumnType.DECIMAL_64, unscaled, unscaled.length);
+    }
+
+    /**
+     * @param epochDays days since 1970-01-01
+     * @return this batch
+     */
+    public ColumnBatch date(int[] epochDays) {
+        return add(ColumnType.DATE, epochDays, epochDays.length);
+    }
+
+    /**
+     * @param epochSeconds seconds since 1970-01-01T00:00:00Z
+     * @return this batch
+     */
+    public ColumnBatch dateTime(int[] epochSeconds) {
+        return add(ColumnType.DATETIME, epochSeconds, epochSeconds.length);
+    }
+
+    public ColumnBatch string(CharSequence[] values) {
+        return add(ColumnType.STRING, values, values.length);
+    }
+
+    /**
+     * Dictionary encoded strings, every distinct string is encoded only once per batch.
+     *
+     * @param codes      indexes of values in dictionary
+     * @param dictionary distinct values
+     * @return this batch
+     */
+    public ColumnBatch string(int[] codes, CharSequence[] dictionary) {
+        Objects.requireNonNull(dictionary);
+        // checked before batch is written, so block is not left with partially written batch
+        for (int row = 0; row < Math.min(rows, codes.length); row++) {
+            if (codes[row] < 0 || codes[row] >= dictionary.length) {
+                throw new IllegalArgumentException("Code " + codes[row] + " of row " + row + " of column " + columns +
+                        " is out of dictionary of " + dictionary.length + " values");
+            }
+        }
+        dictionaries[columns] = dictionary;
+        return add(ColumnType.STRING, codes, codes.length);
+    }
+
+    /**
+     * Array column, whose elements are kept in one flat array like in Arrow list vectors:
+     * elements of row {@code i} are {@code values[offsets[i]]..values[offsets[i + 1] - 1]}.
+     *
+     * @param offsets start of elements of every row and end of the last one, at least {@code rows + 1} values
+     * @param values  elements of all rows
+     * @return this batch
+     */
+    public ColumnBatch array(int[] offsets, byte[] values) {
+        return array(offsets, values, values.length);
+    }
+
+    /**
+     * @see #array(int[], byte[])
+     */
+    public ColumnBatch array(int[] offsets, short[] values) {
+        return array(offsets, values, values.length);
+    }
+
+    /**
+     * @see #array(int[], byte[])
+     */
+    public ColumnBatch array(int[] offsets, int[] values) {
+        return array(offsets, values, values.length);
+    }
+
+    /**
+     * @param values elements of all rows, for Array(Decimal) these are unscaled values
+     * @see #array(int[], byte[])
+     */
+    public ColumnBatch array(int[] offsets, long[] values) {
+        return array(offsets, values, values.length);
+    }
+
+    /**
+     * @see #array(int[], byte[])
+     */
+    public ColumnBatch array(int[] offsets, float[] values) {
+        return array(offsets, values, values.length);
+    }
+
+    /**
+     * @see #array(int[], byte[])
+     */
+    public ColumnBatch array(int[] offsets, double[] values) {
+        return array(offsets, values, values.length);
+    }
+
+    /**
+     * @see #array(int[], byte[])
+     */
+    public ColumnBatch array(int[] offsets, CharSequence[] values) {
+        return array(offsets, values, values.length);
+    }
+
+    private ColumnBatch array(int[] offsets, Object values, int length) {
+        if (offsets.length <= rows) {
+            throw new IllegalArgumentException("Column " + columns + " should contain at least " + (rows + 1) +
+                    " offsets, but got " + offsets.length);
+        }
+        if (offsets[0] < 0 || offsets[rows] > length) {
+            throw new IllegalArgumentException("Offsets of column " + columns + " are out of bounds [0, " + length + "]");
+        }
+        // checked before batch is written, so block is not left with partially written batch
+        for (int row = 0; row < rows; row++) {
+            if (offsets[row + 1] < offsets[row]) {
+                throw new IllegalArgumentException("Offsets of column " + columns + " should not decrease, but offset of row " +
+                        (row + 1) + " is " + offsets[row + 1] + " after " + offsets[row]);
+            }
+        }
+        this.offsets[columns] = offsets;
+        return add(ColumnType.ARRAY, values, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Column data already encoded in Native format, e.g. little-endian values of fixed width type.
+     * Remaining bytes of buffer are copied, its position is not changed.
+     * For fixed width type exactly {@code rows} values should remain.
+     *
+     * @param data encoded values of {@code rows} rows
+     * @return this batch
+     */
+    public ColumnBatch raw(ByteBuffer data) {
+        return add(RAW, data, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Marks rows of the last added column as nulls, the column should be Nullable.
+     * Values at these rows are still written, they are kept by server under nulls.
+     *
+     * @param nulls rows with null values
+     * @return this batch
+     */
+    public ColumnBatch nulls(BitSet nulls) {
+        if (columns == 0) {
+            throw new IllegalStateException("Nulls should follow values of column");
+        }
+        this.nulls[columns - 1] = nulls.toLongArray();
+        return this;
+    }
+
+    private ColumnBatch add(byte type, Object values, int length) {
+        if (columns == types.length) {
+            throw new IllegalStateException("Batch should contain " + types.length + " columns, but got more");
+        }
+        if (length < rows) {
+            throw new IllegalArgumentException("Column " + columns + " should contain at least " + rows +
+                    " values, but got " + length);
+        }
+        types[columns] = type;
+        this.values[columns] = values;
+        columns++;
+        return this;
+    }
+}
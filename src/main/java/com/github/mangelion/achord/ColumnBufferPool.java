@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017-2018 Mangelion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.mangelion.achord;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.jctools.queues.MpmcArrayQueue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps column buffers of sent blocks for next blocks, so steady ingestion does not allocate
+ * and grow buffers of the same size again and again (buffers bigger than chunk of pooled allocator
+ * are not pooled by netty at all).
+ * Buffers are kept by power of two size classes and bounded by total capacity.
+ *
+ * @since 17.10.2026
+ */
+final class ColumnBufferPool {
+    private static final int MIN_CLASS = 16;
+    private static final int MAX_CLASS = 30;
+    private static final int BUFFERS_PER_CLASS = 64;
+    private final MpmcArrayQueue<ByteBuf>[] classes = newQueues(MAX_CLASS - MIN_CLASS + 1);
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final long maxPooledBytes;
+    // blocks that are still in flight after client is closed release their buffers instead of recycling
+    private volatile boolean closed;
+
+    ColumnBufferPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new MpmcArrayQueue<>(BUFFERS_PER_CLASS);
+        }
+    }
+
+    /**
+     * @param alloc    allocator of new buffer, if there is no pooled one
+     * @param capacity expected size of column data
+     * @return empty direct buffer with at least given capacity
+     */
+    ByteBuf acquire(ByteBufAllocator alloc, int capacity) {
+        int sizeClass = Math.max(MIN_CLASS, 32 - Integer.numberOfLeadingZeros(Math.max(capacity, 1) - 1));
+        if (sizeClass <= MAX_CLASS) {
+            ByteBuf buf = classes[sizeClass - MIN_CLASS].poll();
+            if (buf != null) {
+                pooledBytes.addAndGet(-buf.capacity());
+                return buf;
+            }
+        }
+        return alloc.directBuffer(capacity);
+    }
+
+    /**
+     * Takes buffer, that is not referenced by anyone else, back to pool.
+     *
+     * @param buf column buffer
+     * @return false if buffer is not pooled, so caller should release it
+     */
+    boolean recycle(ByteBuf buf) {
+        int capacity = buf.capacity();
+        // the largest class that buffer completely fits
+        int sizeClass = 31 - Integer.numberOfLeadingZeros(capacity);
+        if (closed || buf.refCnt() != 1 || !buf.isDirect() || sizeClass < MIN_CLASS || sizeClass > MAX_CLASS) {
+            return false;
+        }
+
+        if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+            pooledBytes.addAndGet(-capacity);
+            return false;
+        }
+
+        buf.clear();
+        if (!classes[sizeClass - MIN_CLASS].offer(buf)) {
+            pooledBytes.addAndGet(-capacity);
+            return false;
+        }
+
+        if (closed) {
+            // pool is cleared concurrently, so buffer that it could miss is released here
+            drain();
+        }
+        return true;
+    }
+
+    void clear() {
+        closed = true;
+        drain();
+    }
+
+    private void drain() {
+        for (MpmcArrayQueue<ByteBuf> buffers : classes) {
+            ByteBuf buf;
+            while ((buf = buffers.poll()) != null) {
+                pooledBytes.addAndGet(-buf.capacity());
+                buf.release();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> MpmcArrayQueue<E>[] newQueues(int length) {
+        return (MpmcArrayQueue<E>[]) new MpmcArrayQueue<?>[length];
+    }
+}
@@ -17,10 +17,19 @@
 package com.github.mangelion.achord;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.temporal.Temporal;
 
-import static com.github.mangelion.achord.ClickHousePacketDecoder.readVarUInt;
 import static com.github.mangelion.achord.ClientMessage.writeStringBinary;
 import static java.time.temporal.ChronoField.EPOCH_DAY;
 import static java.time.temporal.ChronoField.INSTANT_SECONDS;
@@ -30,18 +39,37 @@ import static java.time.temporal.ChronoField.INSTANT_SECONDS;
  * @since 14.03.2018
  */
 final class ColumnType {
-    private static final byte INT_8 = 0;
-    private static final byte U_INT_8 = 1;
-    private static final byte INT_32 = 2;
-    private static final byte U_INT_32 = 3;
-    private static final byte INT_64 = 4;
-    private static final byte U_INT_64 = 5;
-    private static final byte STRING = 6;
-    private static final byte DATE = 7;
-    private static final byte DATETIME = 8;
+    static final byte INT_8 = 0;
+    static final byte U_INT_8 = 1;
+    static final byte INT_32 = 2;
+    static final byte U_INT_32 = 3;
+    static final byte INT_64 = 4;
+    static final byte U_INT_64 = 5;
+    static final byte STRING = 6;
+    static final byte DATE = 7;
+    static final byte DATETIME = 8;
+    // composite types, their values are kept in nested column
+    static final byte NULLABLE = 9;
+    static final byte ARRAY = 10;
+    // indexes of values, that are kept in dictionary of every block
+    static final byte LOW_CARDINALITY = 11;
+    static final byte INT_16 = 12;
+    static final byte U_INT_16 = 13;
+    static final byte FLOAT_32 = 14;
+    static final byte FLOAT_64 = 15;
+    // unscaled values of decimals, their width depends on precision
+    static final byte DECIMAL_32 = 16;
+    static final byte DECIMAL_64 = 17;
+    static final byte DECIMAL_128 = 18;
 
     static final byte MAX_TYPE_BYTE = DATETIME;
 
+    // shared dictionaries with additional keys, the only version of LowCardinality serialization
+    private static final long LOW_CARDINALITY_KEYS_VERSION = 1;
+    // flags of LowCardinality indexes, their lowest byte is type of index: UInt8, UInt16, UInt32 or UInt64
+    private static final long NEED_GLOBAL_DICTIONARY = 1L << 8;
+    private static final long HAS_ADDITIONAL_KEYS = 1L << 9;
+
     static byte valueOf(String typeName) {
         switch (typeName) {
             case "Int8":
@@ -62,7 +90,18 @@ final class ColumnType {
                 return DATE;
             case "DateTime":
                 return DATETIME;
+            case "Int16":
+                return INT_16;
+            case "UInt16":
+                return U_INT_16;
+            case "Float32":
+                return FLOAT_32;
+            case "Float64":
+                return FLOAT_64;
             default:
+                if (typeName.startsWith("Decimal")) {
+                    return decimalType(typeName);
+                }
                 throw new IllegalArgumentException("Can not find according type for name " + typeName);
         }
     }
@@ -87,49 +126,618 @@ final class ColumnType {
                 return "Date";
             case DATETIME:
                 return "DateTime";
+            case NULLABLE:
+                return "Nullable";
+            case ARRAY:
+                return "Array";
+            case LOW_CARDINALITY:
+                return "LowCardinality";
+            case INT_16:
+                return "Int16";
+            case U_INT_16:
+                return "UInt16";
+            case FLOAT_32:
+                return "Float32";
+            case FLOAT_64:
+                return "Float64";
+            case DECIMAL_32:
+                return "Decimal32";
+            case DECIMAL_64:
+                return "Decimal64";
+            case DECIMAL_128:
+                return "Decimal128";
             default:
                 throw new IllegalArgumentException("Can not find according name for type " + type);
         }
     }
 
-    static void read(byte type, ByteBuf from, ByteBuf to, int count) {
+    /**
+     * @return size of one value in bytes, or 0 if values have variable size
+     */
+    static int width(byte type) {
+        switch (type) {
+            case INT_8:
+            case U_INT_8:
+                return 1;
+            case DATE:
+            case INT_16:
+            case U_INT_16:
+                return 2;
+            case INT_32:
+            case U_INT_32:
+            case DATETIME:
+            case FLOAT_32:
+            case DECIMAL_32:
+                return 4;
+            case INT_64:
+            case U_INT_64:
+            case FLOAT_64:
+            case DECIMAL_64:
+                return 8;
+            case DECIMAL_128:
+                return 16;
+            case STRING:
+                return 0;
+            default:
+                throw new IllegalArgumentException("Can not find width of unknown type " + type);
+        }
+    }
+
+    // Decimal(P, S) or Decimal32(S), Decimal64(S) and Decimal128(S)
+    private static byte decimalType(String typeName) {
+        if (typeName.startsWith("Decimal32(")) {
+            return DECIMAL_32;
+        }
+        if (typeName.startsWith("Decimal64(")) {
+            return DECIMAL_64;
+        }
+        if (typeName.startsWith("Decimal128(")) {
+            return DECIMAL_128;
+        }
+        if (typeName.startsWith("Decimal(") && typeName.endsWith(")")) {
+            int comma = typeName.indexOf(',');
+            int precision = Integer.parseInt(typeName.substring("Decimal(".length(),
+                    comma < 0 ? typeName.length() - 1 : comma).trim());
+            return precision <= 9 ? DECIMAL_32 : precision <= 18 ? DECIMAL_64 : DECIMAL_128;
+        }
+        throw new IllegalArgumentException("Can not find according type for name " + typeName);
+    }
+
+    /**
+     * @return number of decimal digits after point of Decimal type
+     */
+    static int decimalScale(String typeName) {
+        int comma = typeName.indexOf(',');
+        if (typeName.startsWith("Decimal(") && comma < 0) {
+            return 0;
+        }
+        int start = comma < 0 ? typeName.indexOf('(') : comma;
+        return Integer.parseInt(typeName.substring(start + 1, typeName.length() - 1).trim());
+    }
+
+    static boolean isDecimal(byte type) {
+        return type == DECIMAL_32 || type == DECIMAL_64 || type == DECIMAL_128;
+    }
+
+    /**
+     * Parses type name into empty column of this type, nested types of composite ones are parsed recursively.
+     */
+    static ColumnWithTypeAndName column(String name, String typeName) {
+        if (typeName.startsWith("Nullable(") && typeName.endsWith(")")) {
+            ColumnWithTypeAndName nested = column(name, typeName.substring("Nullable(".length(), typeName.length() - 1));
+            return new ColumnWithTypeAndName(NULLABLE, typeName, name, Unpooled.EMPTY_BUFFER, nested, null, null);
+        }
+        if (typeName.startsWith("Array(") && typeName.endsWith(")")) {
+            ColumnWithTypeAndName nested = column(name, typeName.substring("Array(".length(), typeName.length() - 1));
+            return new ColumnWithTypeAndName(ARRAY, typeName, name, Unpooled.EMPTY_BUFFER, nested, null, null);
+        }
+        if (typeName.startsWith("LowCardinality(") && typeName.endsWith(")")) {
+            // dictionary keeps values of nested type without nulls, null is the first key of nullable dictionary
+            String keysType = typeName.substring("LowCardinality(".length(), typeName.length() - 1);
+            if (keysType.startsWith("Nullable(") && keysType.endsWith(")")) {
+                keysType = keysType.substring("Nullable(".length(), keysType.length() - 1);
+            }
+            ColumnWithTypeAndName keys = column(name, keysType);
+            return new ColumnWithTypeAndName(LOW_CARDINALITY, typeName, name, Unpooled.EMPTY_BUFFER, keys, null, null);
+        }
+        return new ColumnWithTypeAndName(valueOf(typeName), typeName, name, Unpooled.EMPTY_BUFFER, null, null, null);
+    }
+
+    /**
+     * @return true if column is LowCardinality(Nullable(T)), so index 0 of its values means null
+     */
+    static boolean isNullableDictionary(ColumnWithTypeAndName column) {
+        return column.type == LOW_CARDINALITY && column.typeName.startsWith("LowCardinality(Nullable(");
+    }
+
+    // LowCardinality column has prefix before all streams of column
+    private static boolean hasLowCardinality(ColumnWithTypeAndName column) {
+        for (ColumnWithTypeAndName c = column; c != null; c = c.nested) {
+            if (c.type == LOW_CARDINALITY) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return number of bytes, that precede all streams of non-empty column
+     */
+    static int prefixLength(ColumnWithTypeAndName column) {
+        return hasLowCardinality(column) ? 8 : 0;
+    }
+
+    /**
+     * Reads column data without copying.
+     * Length of fixed-width column is computed from number of values, string values are scanned once,
+     * and their positions are stored in offsets, so any of them can be accessed later without parsing.
+     *
+     * LowCardinality column keeps slice of indexes in data and its dictionary in nested column.
+     *
+     * @param column empty column of read type
+     * @param count  number of rows, greater than 0, as nothing is serialized for empty column
+     * @return column, that holds retained slices of source buffer
+     */
+    static ColumnWithTypeAndName read(ColumnWithTypeAndName column, ByteBuf from, int count) {
+        if (hasLowCardinality(column)) {
+            long version = from.readLongLE();
+            if (version != LOW_CARDINALITY_KEYS_VERSION) {
+                throw new IllegalArgumentException("Unknown version " + version + " of LowCardinality column " + column.name);
+            }
+        }
+        return readData(column, from, count);
+    }
+
+    private static ColumnWithTypeAndName readData(ColumnWithTypeAndName column, ByteBuf from, int count) {
+        if (column.type == LOW_CARDINALITY) {
+            return readLowCardinality(column, from, count);
+        }
+        if (column.type == NULLABLE) {
+            ByteBuf nullMap = from.readRetainedSlice(count);
+            try {
+                return column.with(nullMap, readData(column.nested, from, count), null, null);
+            } catch (Throwable e) {
+                nullMap.release();
+                throw e;
+            }
+        }
+        if (column.type == ARRAY) {
+            // offsets are cumulative, so the last one is number of nested values
+            ByteBuf offsets = from.readRetainedSlice(8 * count);
+            try {
+                int values = count > 0 ? (int) offsets.getLongLE(8 * (count - 1)) : 0;
+                return column.with(offsets, readData(column.nested, from, values), null, null);
+            } catch (Throwable e) {
+                offsets.release();
+                throw e;
+            }
+        }
+
+        int width = width(column.type);
+        if (width > 0) {
+            return column.with(from.readRetainedSlice(width * count), null, null, null);
+        }
+        int[] offsets = new int[count + 1];
+        int length = scanStrings(from, count, offsets);
+        return column.with(from.readRetainedSlice(length), null, offsets, null);
+    }
+
+    private static ColumnWithTypeAndName readLowCardinality(ColumnWithTypeAndName column, ByteBuf from, int count) {
+        if (count == 0) {
+            // nothing is written for empty column, e.g. for values of empty arrays
+            return column.with(Unpooled.EMPTY_BUFFER, readData(column.nested, from, 0), null, null);
+        }
+        long flags = from.readLongLE();
+        if ((flags & NEED_GLOBAL_DICTIONARY) != 0) {
+            throw new IllegalArgumentException("LowCardinality column " + column.name + " with global dictionary is not supported");
+        }
+        int keys = (flags & HAS_ADDITIONAL_KEYS) != 0 ? (int) from.readLongLE() : 0;
+        ColumnWithTypeAndName dictionary = readData(column.nested, from, keys);
+        try {
+            long rows = from.readLongLE();
+            if (rows != count) {
+                throw new IllegalArgumentException("LowCardinality column " + column.name + " has " + rows + " indexes for " + count + " rows");
+            }
+            return column.with(from.readRetainedSlice(indexWidth(flags) * count), dictionary, null, null);
+        } catch (Throwable e) {
+            dictionary.data.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @param flags flags of LowCardinality indexes, that follow keys version
+     * @return size of one index in bytes
+     */
+    static int indexWidth(long flags) {
+        return 1 << (int) (flags & 0xFF);
+    }
+
+    /**
+     * @return true if LowCardinality column has keys before its indexes
+     */
+    static boolean hasAdditionalKeys(long flags) {
+        if ((flags & NEED_GLOBAL_DICTIONARY) != 0) {
+            throw new IllegalArgumentException("LowCardinality column with global dictionary is not supported");
+        }
+        return (flags & HAS_ADDITIONAL_KEYS) != 0;
+    }
+
+    /**
+     * Index of LowCardinality value at given position of received column.
+     */
+    static int readIndex(ByteBuf indexes, int width, int position) {
+        int index = indexes.readerIndex() + width * position;
+        switch (width) {
+            case 1:
+                return indexes.getUnsignedByte(index);
+            case 2:
+                return indexes.getUnsignedShortLE(index);
+            case 4:
+                return (int) indexes.getUnsignedIntLE(index);
+            default:
+                return (int) indexes.getLongLE(index);
+        }
+    }
+
+    /**
+     * Writes LowCardinality column, that was built. Dictionary is written as additional keys of block,
+     * indexes are narrowed to the smallest type, that fits all of them, and nothing is written for empty column.
+     *
+     * @param indexes UInt32 indexes of rows
+     */
+    static void writeLowCardinality(StringDictionary dictionary, ByteBuf indexes, ByteBuf out) {
+        int rows = indexes.readableBytes() >>> 2;
+        if (rows == 0) {
+            return;
+        }
+        int keyType = dictionary.size() <= 1 << 8 ? 0 : dictionary.size() <= 1 << 16 ? 1 : 2;
+        out.writeLongLE(LOW_CARDINALITY_KEYS_VERSION);
+        out.writeLongLE(keyType | HAS_ADDITIONAL_KEYS);
+        out.writeLongLE(dictionary.size());
+        dictionary.writeTo(out);
+        out.writeLongLE(rows);
+
+        out.ensureWritable(rows << keyType);
+        int end = indexes.writerIndex();
+        switch (keyType) {
+            case 0:
+                for (int i = indexes.readerIndex(); i < end; i += 4) {
+                    out.writeByte(indexes.getIntLE(i));
+                }
+                return;
+            case 1:
+                for (int i = indexes.readerIndex(); i < end; i += 4) {
+                    out.writeShortLE(indexes.getIntLE(i));
+                }
+                return;
+            default:
+                out.writeBytes(indexes, indexes.readerIndex(), rows << 2);
+        }
+    }
+
+    private static int scanStrings(ByteBuf in, int count, int[] offsets) {
+        int start = in.readerIndex();
+        int index = start;
+        for (int i = 0; i < count; i++) {
+            offsets[i] = index - start;
+            int length = 0;
+            byte b;
+            int shift = 0;
+            do {
+                b = in.getByte(index++);
+                length |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            index += length;
+        }
+        offsets[count] = index - start;
+        return index - start;
+    }
+
+    /**
+     * Decodes string value, that starts at given offset of column data.
+     */
+    static String readString(ByteBuf data, int[] offsets, int row) {
+        int index = data.readerIndex() + offsets[row];
+        int end = data.readerIndex() + offsets[row + 1];
+        // size of value is known from offsets, so its varint prefix is only skipped
+        while ((data.getByte(index++) & 0x80) != 0) {
+        }
+        return data.toString(index, end - index, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return true if values of column array can be written into column of given type
+     */
+    static boolean accepts(byte type, Object values) {
+        if (values instanceof ByteBuffer) {
+            return true;
+        }
         switch (type) {
             case INT_8:
             case U_INT_8:
-                from.readBytes(to, count);
+                return values instanceof byte[];
+            case INT_32:
+            case U_INT_32:
+            case DATE:
+            case DATETIME:
+                return values instanceof int[];
+            case INT_64:
+            case U_INT_64:
+                return values instanceof long[];
+            case STRING:
+                return values instanceof CharSequence[];
+            case INT_16:
+            case U_INT_16:
+                return values instanceof short[];
+            case FLOAT_32:
+                return values instanceof float[];
+            case FLOAT_64:
+                return values instanceof double[];
+            case DECIMAL_32:
+            case DECIMAL_64:
+            case DECIMAL_128:
+                // unscaled values
+                return values instanceof long[];
+            default:
+                return false;
+        }
+    }
+
+    // bulk little-endian copy of the first count values of column array, or of whole raw buffer
+    static void writeBulk(byte type, Object values, CharSequence[] dictionary, int count, ByteBuf buf) {
+        writeBulk(type, values, dictionary, 0, count, buf);
+    }
+
+    // bulk little-endian copy of count values of column array starting from given one
+    static void writeBulk(byte type, Object values, CharSequence[] dictionary, int from, int count, ByteBuf buf) {
+        if (values instanceof ByteBuffer) {
+            buf.writeBytes(((ByteBuffer) values).duplicate());
+            return;
+        }
+
+        switch (type) {
+            case INT_8:
+            case U_INT_8:
+                buf.writeBytes((byte[]) values, from, count);
                 return;
             case INT_32:
             case U_INT_32:
             case DATETIME:
-                from.readBytes(to, count * 4);
+                writeInts(buf, (int[]) values, from, count);
                 return;
             case INT_64:
             case U_INT_64:
-                from.readBytes(to, count * 8);
+                writeLongs(buf, (long[]) values, from, count);
+                return;
             case STRING:
-                readString(from, to, count);
+                if (dictionary != null) {
+                    writeDictionaryStrings(buf, (int[]) values, dictionary, from, count);
+                } else {
+                    CharSequence[] strings = (CharSequence[]) values;
+                    for (int i = from; i < from + count; i++) {
+                        writeStringBinary(buf, strings[i]);
+                    }
+                }
                 return;
             case DATE:
-                from.readBytes(to, count * 2);
+                writeShorts(buf, (int[]) values, from, count);
+                return;
+            case INT_16:
+            case U_INT_16:
+                writeShorts(buf, (short[]) values, from, count);
+                return;
+            case FLOAT_32:
+                writeFloats(buf, (float[]) values, from, count);
+                return;
+            case FLOAT_64:
+                writeDoubles(buf, (double[]) values, from, count);
+                return;
+            case DECIMAL_32:
+            case DECIMAL_64:
+            case DECIMAL_128:
+                writeDecimals(buf, type, (long[]) values, from, count);
                 return;
             default:
-                throw new IllegalArgumentException("Can not read unknown type " + type);
+                throw new IllegalArgumentException("Can not write unknown type " + type);
         }
     }
 
-    private static void readString(ByteBuf in, ByteBuf out, int count) {
-        int from = in.readerIndex();
-        in.markReaderIndex();
-        for (int i = 0; i < count; i++) {
-            int strSize = (int) readVarUInt(in);
+    private static ByteBuffer reserve(ByteBuf buf, int length) {
+        buf.ensureWritable(length);
+        int index = buf.writerIndex();
+        buf.writerIndex(index + length);
+        return buf.internalNioBuffer(index, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void writeInts(ByteBuf buf, int[] values, int from, int count) {
+        if (buf.nioBufferCount() == 1) {
+            reserve(buf, count * 4).asIntBuffer().put(values, from, count);
+        } else {
+            for (int i = from; i < from + count; i++) {
+                buf.writeIntLE(values[i]);
+            }
+        }
+    }
+
+    private static void writeLongs(ByteBuf buf, long[] values, int from, int count) {
+        if (buf.nioBufferCount() == 1) {
+            reserve(buf, count * 8).asLongBuffer().put(values, from, count);
+        } else {
+            for (int i = from; i < from + count; i++) {
+                buf.writeLongLE(values[i]);
+            }
+        }
+    }
+
+    // values are narrowed to UInt16, so they can not be copied at once
+    private static void writeShorts(ByteBuf buf, int[] values, int from, int count) {
+        if (buf.nioBufferCount() == 1) {
+            ShortBuffer shorts = reserve(buf, count * 2).asShortBuffer();
+            for (int i = from; i < from + count; i++) {
+                shorts.put((short) values[i]);
+            }
+        } else {
+            for (int i = from; i < from + count; i++) {
+                buf.writeShortLE(values[i]);
+            }
+        }
+    }
+
+    private static void writeShorts(ByteBuf buf, short[] values, int from, int count) {
+        if (buf.nioBufferCount() == 1) {
+            reserve(buf, count * 2).asShortBuffer().put(values, from, count);
+        } else {
+            for (int i = from; i < from + count; i++) {
+                buf.writeShortLE(values[i]);
+            }
+        }
+    }
 
-            in.readerIndex(in.readerIndex() + strSize);
+    private static void writeFloats(ByteBuf buf, float[] values, int from, int count) {
+        if (buf.nioBufferCount() == 1) {
+            reserve(buf, count * 4).asFloatBuffer().put(values, from, count);
+        } else {
+            for (int i = from; i < from + count; i++) {
+                buf.writeFloatLE(values[i]);
+            }
         }
+    }
 
-        int to = in.readerIndex();
-        in.resetReaderIndex();
+    private static void writeDoubles(ByteBuf buf, double[] values, int from, int count) {
+        if (buf.nioBufferCount() == 1) {
+            reserve(buf, count * 8).asDoubleBuffer().put(values, from, count);
+        } else {
+            for (int i = from; i < from + count; i++) {
+                buf.writeDoubleLE(values[i]);
+            }
+        }
+    }
 
-        in.readBytes(out, to - from);
+    // unscaled values are narrowed to Decimal32 or sign-extended to Decimal128, overflow of Decimal32 fails
+    private static void writeDecimals(ByteBuf buf, byte type, long[] values, int from, int count) {
+        if (type == DECIMAL_64) {
+            writeLongs(buf, values, from, count);
+        } else if (buf.nioBufferCount() == 1 && type == DECIMAL_32) {
+            IntBuffer ints = reserve(buf, count * 4).asIntBuffer();
+            for (int i = from; i < from + count; i++) {
+                ints.put(Math.toIntExact(values[i]));
+            }
+        } else if (buf.nioBufferCount() == 1) {
+            LongBuffer longs = reserve(buf, count * 16).asLongBuffer();
+            for (int i = from; i < from + count; i++) {
+                longs.put(values[i]).put(values[i] >> 63);
+            }
+        } else {
+            for (int i = from; i < from + count; i++) {
+                writeDecimal(type, values[i], buf);
+            }
+        }
+    }
+
+    /**
+     * @param unscaled value multiplied by 10^scale of column
+     */
+    static void writeDecimal(byte type, long unscaled, ByteBuf buf) {
+        switch (type) {
+            case DECIMAL_32:
+                buf.writeIntLE(Math.toIntExact(unscaled));
+                return;
+            case DECIMAL_64:
+                buf.writeLongLE(unscaled);
+                return;
+            case DECIMAL_128:
+                buf.writeLongLE(unscaled);
+                buf.writeLongLE(unscaled >> 63);
+                return;
+            default:
+                throw new IllegalArgumentException("Can not write decimal into type " + type);
+        }
+    }
+
+    // every distinct value is encoded once, then rows are filled with copies of encoded values
+    private static void writeDictionaryStrings(ByteBuf buf, int[] codes, CharSequence[] dictionary, int from, int count) {
+        int[] offsets = new int[dictionary.length + 1];
+        ByteBuf encoded = buf.alloc().heapBuffer();
+        try {
+            for (int i = 0; i < dictionary.length; i++) {
+                writeStringBinary(encoded, dictionary[i]);
+                offsets[i + 1] = encoded.writerIndex();
+            }
+
+            for (int i = from; i < from + count; i++) {
+                int code = codes[i];
+                buf.writeBytes(encoded, offsets[code], offsets[code + 1] - offsets[code]);
+            }
+        } finally {
+            encoded.release();
+        }
+    }
+
+    // boxed value of column, that is being built, null is accepted by Nullable and LowCardinality(Nullable) columns only
+    static void write(ColumnWithTypeAndName column, Object val) {
+        if (column.type == LOW_CARDINALITY) {
+            if (val == null && !isNullableDictionary(column)) {
+                throw new IllegalArgumentException("Column " + column.name + " has type " + column.typeName + ", but null is written");
+            }
+            column.data.writeIntLE(val == null ? 0 : column.dictionary.index((CharSequence) val));
+            return;
+        }
+        if (column.type == NULLABLE) {
+            column.nulls.add(val == null);
+            if (val == null) {
+                writeDefault(column.nested);
+            } else {
+                write(column.nested, val);
+            }
+            return;
+        }
+        if (val == null) {
+            throw new IllegalArgumentException("Column " + column.name + " has type " + column.typeName + ", but null is written");
+        }
+        if (column.type == ARRAY) {
+            // primitive and object arrays, their elements are boxed one by one
+            int length = Array.getLength(val);
+            writeArraySize(column, length);
+            for (int i = 0; i < length; i++) {
+                write(column.nested, Array.get(val, i));
+            }
+            return;
+        }
+        if (isDecimal(column.type) && val instanceof BigDecimal) {
+            // scale is not rounded, so value, that does not fit into column scale, fails
+            BigInteger unscaled = ((BigDecimal) val).setScale(decimalScale(column.typeName)).unscaledValue();
+            if (column.type == DECIMAL_128) {
+                if (unscaled.bitLength() > 127) {
+                    throw new ArithmeticException("Value " + val + " does not fit into " + column.typeName);
+                }
+                column.data.writeLongLE(unscaled.longValue());
+                column.data.writeLongLE(unscaled.shiftRight(64).longValue());
+            } else {
+                writeDecimal(column.type, unscaled.longValueExact(), column.data);
+            }
+            return;
+        }
+        write(column.type, val, column.data);
+    }
+
+    // appends offset of the next array of column, that is being built
+    static void writeArraySize(ColumnWithTypeAndName column, int size) {
+        ByteBuf offsets = column.data;
+        long last = offsets.isReadable() ? offsets.getLongLE(offsets.writerIndex() - 8) : 0;
+        offsets.writeLongLE(last + size);
+    }
+
+    // value, that is kept under null of Nullable column
+    static void writeDefault(ColumnWithTypeAndName column) {
+        int width = width(column.type);
+        if (width > 0) {
+            column.data.writeZero(width);
+        } else {
+            // empty string
+            column.data.writeByte(0);
+        }
     }
 
     static void write(byte type, Object val, ByteBuf buf) {
@@ -147,16 +755,32 @@ final class ColumnType {
                 buf.writeLongLE((long) val);
                 return;
             case STRING:
-                writeStringBinary(buf, (String) val);
+                writeStringBinary(buf, (CharSequence) val);
                 return;
-            // possible writeShortLe and writeIntLe below
+            // Native format is little-endian for all numbers
             case DATE:
                 Temporal date = (Temporal) val;
-                buf.writeShort(date.get(EPOCH_DAY));
+                buf.writeShortLE((int) date.getLong(EPOCH_DAY));
                 return;
             case DATETIME:
                 Temporal dateTime = (Temporal) val;
-                buf.writeInt((int) dateTime.getLong(INSTANT_SECONDS));
+                buf.writeIntLE((int) dateTime.getLong(INSTANT_SECONDS));
+                return;
+            case INT_16:
+            case U_INT_16:
+                buf.writeShortLE((short) val);
+                return;
+            case FLOAT_32:
+                buf.writeFloatLE((float) val);
+                return;
+            case FLOAT_64:
+                buf.writeDoubleLE((double) val);
+                return;
+            // unscaled long
+            case DECIMAL_32:
+            case DECIMAL_64:
+            case DECIMAL_128:
+                writeDecimal(type, (long) val, buf);
                 return;
             default:
                 throw new IllegalArgumentException("Can not write unknown type " + type);
@@ -19,18 +19,67 @@ package com.github.mangelion.achord;
 import io.netty.buffer.ByteBuf;
 
 /**
+ * Column of block. Data of composite types is split into streams, e.g. Nullable column keeps its null map
+ * in data and its values in nested column, and streams are serialized one after another.
+ *
  * @author Dmitriy Poluyanov
  * @since 24.12.2017
  */
 final class ColumnWithTypeAndName {
     final byte type;
+    // full name of type, as it is known by server
+    final String typeName;
     final ByteBuf data;
     final String name;
+    // values of composite type, null for plain types
+    final ColumnWithTypeAndName nested;
+    // start of every serialized value relative to reader index of data and end of the last one,
+    // present for received string columns only
+    final int[] offsets;
+    // null flags of Nullable column, that is being built, they are moved into data when block is completed
+    final NullMap nulls;
+    // distinct values of LowCardinality column, that is being built, data keeps their indexes until block is completed
+    final StringDictionary dictionary;
 
     // todo may be lazy allocation with predefined size would be more effective
     ColumnWithTypeAndName(byte type, String name, ByteBuf data) {
+        this(type, ColumnType.valueOf(type).toString(), name, data, null, null, null);
+    }
+
+    ColumnWithTypeAndName(byte type, String typeName, String name, ByteBuf data,
+                          ColumnWithTypeAndName nested, int[] offsets, NullMap nulls) {
+        this(type, typeName, name, data, nested, offsets, nulls, null);
+    }
+
+    ColumnWithTypeAndName(byte type, String typeName, String name, ByteBuf data,
+                          ColumnWithTypeAndName nested, int[] offsets, NullMap nulls, StringDictionary dictionary) {
         this.type = type;
+        this.typeName = typeName;
         this.name = name;
         this.data = data;
+        this.nested = nested;
+        this.offsets = offsets;
+        this.nulls = nulls;
+        this.dictionary = dictionary;
+    }
+
+    // column of the same type with other data
+    ColumnWithTypeAndName with(ByteBuf data, ColumnWithTypeAndName nested, int[] offsets, NullMap nulls) {
+        return new ColumnWithTypeAndName(type, typeName, name, data, nested, offsets, nulls);
+    }
+
+    // size of serialized data of all streams
+    long bytes() {
+        long bytes = data.readableBytes();
+        if (nulls != null) {
+            bytes += nulls.bytes();
+        }
+        if (dictionary != null) {
+            bytes += dictionary.bytes();
+        }
+        if (nested != null) {
+            bytes += nested.bytes();
+        }
+        return bytes;
     }
 }
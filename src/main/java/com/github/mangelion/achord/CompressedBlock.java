@@ -28,11 +28,14 @@ final class CompressedBlock extends AbstractReferenceCounted {
     final int method;
     final ByteBuf compressed;
     final int decompressedSize;
+    // frame continues block of previous one, as block larger than max_compress_block_size is cut into frames
+    final boolean continued;
 
-    CompressedBlock(int method, ByteBuf compressed, int decompressedSize) {
+    CompressedBlock(int method, ByteBuf compressed, int decompressedSize, boolean continued) {
         this.method = method;
         this.compressed = compressed;
         this.decompressedSize = decompressedSize;
+        this.continued = continued;
     }
 
     @Override
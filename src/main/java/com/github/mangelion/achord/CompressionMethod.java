@@ -19,106 +19,63 @@ package com.github.mangelion.achord;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.util.ReferenceCountUtil;
-import net.jpountz.lz4.LZ4Compressor;
-import net.jpountz.lz4.LZ4Factory;
-import net.jpountz.lz4.LZ4FastDecompressor;
 
 /**
  * @author Dmitriy Poluyanov
  * @since 28.12.2017
- * todo make compression engines dynamically loadable, and exclude them from classpath
+ * Engines are loaded only when method is used first time, so unused engine libraries can be excluded from classpath
  */
 public enum CompressionMethod {
     LZ4(1, 0x82) {
         @Override
-        void compress(ByteBuf in, int inStart, ByteBuf out, long level) {
-            int uncompressedSize = in.writerIndex() - inStart;
-            int maxBound = lz4CompressBound(uncompressedSize);
-            int outStart = out.writerIndex();
-            int compressedDataPos = outStart + HASH_SIZE + HEADER_SIZE;
-
-            // ensure writable
-            out.ensureWritable(compressedDataPos + maxBound)
-                    .writerIndex(compressedDataPos + maxBound);
-
-            // use fastest possible instance for compression (and java-instance should be used for decompression)
-            LZ4Factory lz4Factory = LZ4Factory.fastestInstance();
-            LZ4Compressor lz4Compressor = lz4Factory.fastCompressor();
-
-            int compressedSize = HEADER_SIZE + lz4Compressor.compress(in.nioBuffer(),
-                    inStart,
-                    uncompressedSize, out.nioBuffer(), compressedDataPos, maxBound);
-            out.writerIndex(compressedDataPos + compressedSize - HEADER_SIZE);
-
-            out.setByte(outStart + HASH_SIZE + 0, getMethodByte())
-                    .setIntLE(outStart + HASH_SIZE + 1, compressedSize)
-                    .setIntLE(outStart + HASH_SIZE + 5, uncompressedSize);
-
-            UInt128 hash = CityHash_v1_0_2.CityHash128(out.slice(outStart + HASH_SIZE, compressedSize), compressedSize);
-
-            out.setLongLE(outStart, hash.first)
-                    .setLongLE(outStart + 8, hash.second);
+        Compressor compressor() {
+            return Lz4Codec.LZ4_CODEC;
         }
 
         @Override
-        ByteBuf decompress(ByteBuf input, int decompressedSize, ByteBufAllocator alloc) {
-            ByteBuf dest = null;
-            try {
-                LZ4Factory lz4Factory = LZ4Factory.fastestInstance();
-                LZ4FastDecompressor lz4FastDecompressor = lz4Factory.fastDecompressor();
-
-                dest = alloc.buffer(decompressedSize, decompressedSize)
-                        .writerIndex(decompressedSize);
-
-                if (lz4FastDecompressor.decompress(input.nioBuffer(), input.readerIndex(),
-                        dest.nioBuffer(), 0, decompressedSize) < 0) {
-                    throw new RuntimeException("Cannot decompress with LZ4");
-                }
-                return dest;
-            } catch (Throwable e) {
-                ReferenceCountUtil.release(dest);
-                throw e;
-            }
+        Decompressor decompressor() {
+            return Lz4Codec.LZ4_CODEC;
         }
     },
+    // LZ4HC produces ordinary LZ4 blocks
     LZ4HC(2, 0x82) {
         @Override
-        void compress(ByteBuf in, int inStart, ByteBuf out, long level) {
+        Compressor compressor() {
+            return Lz4Codec.LZ4HC_CODEC;
         }
 
         @Override
-        ByteBuf decompress(ByteBuf input, int decompressedSize, ByteBufAllocator alloc) {
-            return null;
+        Decompressor decompressor() {
+            return Lz4Codec.LZ4HC_CODEC;
         }
     },
 
     ZSTD(3, 0x90) {
         @Override
-        void compress(ByteBuf in, int inStart, ByteBuf out, long level) {
-            throw new UnsupportedOperationException("Not implemented yet");
+        Compressor compressor() {
+            return ZstdCodec.ZSTD_CODEC;
         }
 
         @Override
-        ByteBuf decompress(ByteBuf input, int decompressedSize, ByteBufAllocator alloc) {
-            return null;
+        Decompressor decompressor() {
+            return ZstdCodec.ZSTD_CODEC;
         }
     },
 
     NONE(4, 0x02) {
         @Override
-        void compress(ByteBuf in, int inStart, ByteBuf out, long level) {
-            throw new UnsupportedOperationException("Not implemented yet");
+        Compressor compressor() {
+            return NoneCodec.NONE_CODEC;
         }
 
         @Override
-        ByteBuf decompress(ByteBuf input, int decompressedSize, ByteBufAllocator alloc) {
-            return null;
+        Decompressor decompressor() {
+            return NoneCodec.NONE_CODEC;
         }
     };
 
     public static final int HASH_SIZE = 16;
     static final int HEADER_SIZE = 9;
-    static final int LZ4_MAX_INPUT_SIZE = 0x7E000000;
 
     private final int id;
     private final int methodByte;
@@ -128,17 +85,55 @@ public enum CompressionMethod {
         this.methodByte = methodByte;
     }
 
-    static int lz4CompressBound(long isize) {
-        return (isize) > LZ4_MAX_INPUT_SIZE ? 0 : (int) ((isize) + ((isize) / 255) + 16);
-    }
-
     public int getId() {
         return id;
     }
 
-    abstract void compress(ByteBuf input, int inStart, ByteBuf output, long level);
+    abstract Compressor compressor();
+
+    abstract Decompressor decompressor();
+
+    // compresses everything written into input after inStart as one frame
+    void compress(ByteBuf in, int inStart, ByteBuf out, long level) {
+        Compressor compressor = compressor();
+        int uncompressedSize = in.writerIndex() - inStart;
+        int maxBound = compressor.maxCompressedLength(uncompressedSize);
+        int outStart = out.writerIndex();
+        int compressedDataPos = outStart + HASH_SIZE + HEADER_SIZE;
+
+        out.ensureWritable(HASH_SIZE + HEADER_SIZE + maxBound);
+
+        int compressedSize = HEADER_SIZE + compressor.compress(in, inStart, uncompressedSize,
+                out, compressedDataPos, maxBound, level);
+        out.writerIndex(outStart + HASH_SIZE + compressedSize);
+
+        writeHeaderAndChecksum(out, outStart, compressedSize, uncompressedSize);
+    }
+
+    // decompresses readable bytes of input, that follow frame header
+    ByteBuf decompress(ByteBuf input, int decompressedSize, ByteBufAllocator alloc) {
+        ByteBuf dest = null;
+        try {
+            dest = alloc.directBuffer(decompressedSize, decompressedSize);
+            decompressor().decompress(input, input.readerIndex(), input.readableBytes(), dest, 0, decompressedSize);
+            return dest.writerIndex(decompressedSize);
+        } catch (Throwable e) {
+            ReferenceCountUtil.release(dest);
+            throw e;
+        }
+    }
+
+    // layout is [checksum 16 bytes][method 1 byte][compressed size with header 4 bytes][uncompressed size 4 bytes][data]
+    void writeHeaderAndChecksum(ByteBuf out, int outStart, int compressedSize, int uncompressedSize) {
+        out.setByte(outStart + HASH_SIZE + 0, getMethodByte())
+                .setIntLE(outStart + HASH_SIZE + 1, compressedSize)
+                .setIntLE(outStart + HASH_SIZE + 5, uncompressedSize);
 
-    abstract ByteBuf decompress(ByteBuf input, int decompressedSize, ByteBufAllocator alloc);
+        UInt128 hash = CityHash_v1_0_2.CityHash128(out.slice(outStart + HASH_SIZE, compressedSize), compressedSize);
+
+        out.setLongLE(outStart, hash.first)
+                .setLongLE(outStart + 8, hash.second);
+    }
 
     public int getMethodByte() {
         return methodByte;
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2017-2018 Mangelion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.mangelion.achord;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Compression engine behind {@link CompressionMethod}.
+ * Implementations are resolved once and are used concurrently by all compression threads,
+ * so they should be thread-safe (or keep their state per thread).
+ *
+ * @since 17.10.2026
+ */
+interface Compressor {
+
+    int maxCompressedLength(int length);
+
+    /**
+     * Compresses {@code srcLength} bytes of {@code src} into {@code dst}, indexes of buffers are not changed
+     *
+     * @return size of compressed data
+     */
+    int compress(ByteBuf src, int srcIndex, int srcLength, ByteBuf dst, int dstIndex, int maxDstLength, long level);
+}
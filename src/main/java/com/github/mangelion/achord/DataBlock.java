@@ -16,31 +16,172 @@
 
 package com.github.mangelion.achord;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.util.AbstractReferenceCounted;
 import io.netty.util.ReferenceCountUtil;
 import io.netty.util.ReferenceCounted;
 
 /**
+ * Block of columns received from or sent to server in Native format.
+ * Block is reference counted, so every block emitted by {@link ClickHouseClient#query(String)}
+ * should be released by subscriber as soon as it is not needed anymore.
+ *
  * @author Dmitriy Poluyanov
  * @since 18/02/2018
  */
-final class DataBlock extends AbstractReferenceCounted {
+public final class DataBlock extends AbstractReferenceCounted {
     static final DataBlock EMPTY = new DataBlock(new BlockInfo(), new ColumnWithTypeAndName[0], 0);
     // before usage should be retained
     final BlockInfo info;
     final ColumnWithTypeAndName[] columns;
     final int rows;
+    // pool of built blocks, that takes column buffers back after block is written
+    private final ColumnBufferPool pool;
 
     DataBlock(BlockInfo info, ColumnWithTypeAndName[] columns, int rows) {
+        this(info, columns, rows, null);
+    }
+
+    DataBlock(BlockInfo info, ColumnWithTypeAndName[] columns, int rows, ColumnBufferPool pool) {
         this.info = info;
         this.columns = columns;
         this.rows = rows;
+        this.pool = pool;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getColumnsCount() {
+        return columns.length;
+    }
+
+    public String getColumnName(int column) {
+        return columns[column].name;
+    }
+
+    public String getColumnType(int column) {
+        return columns[column].typeName;
+    }
+
+    /**
+     * Raw column data in Native (little-endian) format, for Nullable column it is null map, one byte per row,
+     * for Array column it is UInt64 offsets, where offset of row is end of its values in nested column,
+     * and for LowCardinality column it is indexes of values in its dictionary, all of the same width,
+     * that is size of data divided by number of rows.
+     * Returned buffer shares content with block, so it is valid until block is released.
+     *
+     * @param column column index
+     * @return read-only view of column data with independent indexes
+     */
+    public ByteBuf getColumnData(int column) {
+        return columns[column].data.asReadOnly();
+    }
+
+    /**
+     * Raw values of Nullable column in Native format, values of null rows are defaults of nested type.
+     * For Array column these are values of all its arrays one after another,
+     * e.g. flat UInt32 values of Array(UInt32), that are split into rows by {@link #getColumnData(int)}.
+     * For LowCardinality column these are keys of its dictionary, the first key of nullable dictionary stands for null.
+     *
+     * @param column column index
+     * @return read-only view of values with independent indexes
+     * @throws IllegalArgumentException if column is not of composite type
+     */
+    public ByteBuf getNestedColumnData(int column) {
+        return nested(column).data.asReadOnly();
+    }
+
+    /**
+     * String value of nested column of Nullable(String) or Array(String) column, or key of LowCardinality(String).
+     *
+     * @param column column index
+     * @param index  index of value in nested column, for Array column it is counted over all arrays
+     * @return value decoded as UTF-8
+     */
+    public String getNestedString(int column, int index) {
+        ColumnWithTypeAndName nested = nested(column);
+        if (nested.offsets == null) {
+            throw new IllegalArgumentException("Column " + nested.name + " of type " + columns[column].typeName + " does not contain strings");
+        }
+        if (index < 0 || index >= nested.offsets.length - 1) {
+            throw new IndexOutOfBoundsException("Index " + index + " is out of bounds [0, " + (nested.offsets.length - 1) + ")");
+        }
+        return ColumnType.readString(nested.data, nested.offsets, index);
+    }
+
+    private ColumnWithTypeAndName nested(int column) {
+        ColumnWithTypeAndName c = columns[column];
+        if (c.nested == null) {
+            throw new IllegalArgumentException("Column " + c.name + " of type " + c.typeName + " does not have nested column");
+        }
+        return c.nested;
+    }
+
+    /**
+     * @param column column index
+     * @param row    row index
+     * @return true if column is Nullable or LowCardinality(Nullable) and its value at given row is null
+     */
+    public boolean isNull(int column, int row) {
+        checkRow(row);
+        ColumnWithTypeAndName c = columns[column];
+        if (ColumnType.isNullableDictionary(c)) {
+            return index(c, row) == 0;
+        }
+        return c.type == ColumnType.NULLABLE && c.data.getByte(c.data.readerIndex() + row) != 0;
+    }
+
+    /**
+     * Value of String, Nullable(String) or LowCardinality(String) column at given row. Positions of values are found once,
+     * when block is received, so any value is decoded without scanning of previous ones.
+     *
+     * @param column column index
+     * @param row    row index
+     * @return value decoded as UTF-8, or null
+     * @throws IllegalArgumentException if column is not a received String column
+     */
+    public String getString(int column, int row) {
+        if (isNull(column, row)) {
+            return null;
+        }
+        ColumnWithTypeAndName c = columns[column];
+        ColumnWithTypeAndName values = c.type == ColumnType.NULLABLE || c.type == ColumnType.LOW_CARDINALITY ? c.nested : c;
+        if (values.offsets == null) {
+            throw new IllegalArgumentException("Column " + c.name + " of type " + c.typeName + " does not contain strings");
+        }
+        return ColumnType.readString(values.data, values.offsets, c.type == ColumnType.LOW_CARDINALITY ? index(c, row) : row);
+    }
+
+    // index of value of received LowCardinality column in its dictionary
+    private int index(ColumnWithTypeAndName c, int row) {
+        return ColumnType.readIndex(c.data, c.data.readableBytes() / rows, row);
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("Row " + row + " is out of bounds [0, " + rows + ")");
+        }
+    }
+
+    // size of column data
+    long bytes() {
+        long bytes = 0;
+        for (ColumnWithTypeAndName column : columns) {
+            bytes += column.bytes();
+        }
+        return bytes;
     }
 
     @Override
     protected void deallocate() {
         for (int i = 0; i < columns.length; i++) {
-            ReferenceCountUtil.release(columns[i].data);
+            for (ColumnWithTypeAndName stream = columns[i]; stream != null; stream = stream.nested) {
+                if (pool == null || !pool.recycle(stream.data)) {
+                    ReferenceCountUtil.release(stream.data);
+                }
+            }
             columns[i] = null;
         }
     }
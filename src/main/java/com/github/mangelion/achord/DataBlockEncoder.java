@@ -47,30 +47,43 @@ final class DataBlockEncoder extends MessageToByteEncoder<DataBlock> {
     }
 
     static void writeBlock(DataBlock block, ByteBuf out) {
-        block.info.write(out);
+        writeBlockInfo(block, out);
 
         ColumnWithTypeAndName[] columns = block.columns;
 
-        writeVarUInt(out, columns.length);
-        writeVarUInt(out, block.rows);
-
         // for avoid reallocations it is faster to precalculate estimated size
         int estimatedRest = 0;
         for (int i = 0; i < columns.length; i++) {
             estimatedRest += 4 + columns[i].name.length();
-            estimatedRest += 4 + ColumnType.valueOf(columns[i].type).length();
-            estimatedRest += columns[i].data.readableBytes();
+            estimatedRest += 4 + columns[i].typeName.length();
+            estimatedRest += (int) columns[i].bytes();
         }
 
         out = out.ensureWritable(estimatedRest);
 
         for (int i = 0; i < columns.length; i++) {
             ColumnWithTypeAndName c = columns[i];
-            writeStringBinary(out, c.name);
-            writeStringBinary(out, ColumnType.valueOf(c.type));
+            writeColumnHeader(c, out);
             if (block.rows > 0) {
-                out.writeBytes(c.data);
+                // streams of composite column follow each other
+                for (ColumnWithTypeAndName stream = c; stream != null; stream = stream.nested) {
+                    out.writeBytes(stream.data);
+                }
             }
         }
     }
+
+    // block info, columns and rows count
+    static void writeBlockInfo(DataBlock block, ByteBuf out) {
+        block.info.write(out);
+
+        writeVarUInt(out, block.columns.length);
+        writeVarUInt(out, block.rows);
+    }
+
+    // name and type, that precede column data
+    static void writeColumnHeader(ColumnWithTypeAndName column, ByteBuf out) {
+        writeStringBinary(out, column.name);
+        writeStringBinary(out, column.typeName);
+    }
 }
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2017-2018 Mangelion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.mangelion.achord;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.pool.ChannelPool;
+
+import java.util.concurrent.Flow;
+
+/**
+ * @since 17.10.2026
+ */
+final class DataBlockResponsePublisher extends QueryResponsePublisher<DataBlock, ReceiveDataQueryContext> {
+
+    DataBlockResponsePublisher(ChannelPool pool, EventLoopGroup workersGroup,
+                               AuthData authData, String queryId, String query, Settings settings, Limits limits) {
+        super(pool, workersGroup, authData, queryId, query, settings, limits);
+    }
+
+    @Override
+    ReceiveDataQueryContext createContext(Channel channel, Flow.Subscriber<? super DataBlock> s) {
+        return new ReceiveDataQueryContext(authData, queryId, query, settings, limits, channel, pool, s, workersGroup.next());
+    }
+
+    @Override
+    void request(ReceiveDataQueryContext context, long n) {
+        context.request(n);
+    }
+
+    @Override
+    void cancel(ReceiveDataQueryContext context) {
+        context.cancel();
+    }
+}
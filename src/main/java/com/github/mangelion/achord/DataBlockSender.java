@@ -20,16 +20,18 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.EventLoop;
 import io.netty.util.ReferenceCountUtil;
-import org.jctools.queues.SpscArrayQueue;
+import org.jctools.queues.MpscUnboundedArrayQueue;
 
 import java.util.concurrent.Flow;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
-
-import static com.github.mangelion.achord.QueryContext.QUERY_CONTEXT_ATTR;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
+ * Writes blocks into channel in order they are produced and requests next blocks while
+ * bytes of requested and unsent blocks fit into {@link InFlightWindow}.
+ *
  * @author Dmitriy Poluyanov
  * @since 01/03/2018
  */
@@ -39,19 +41,26 @@ final class DataBlockSender extends ChannelInboundHandlerAdapter implements Flow
     private static final int SUBSCRIBED = 0;
     private static final int COMPLETE = 1;
     private static final int TERMINATED = 2;
-    // TODO: prefetch should be configurable and (may be) automatically calculable by some evristics
-    private static final int PREFETCH = 2 << 3;
+    // bounds number of requested blocks, while their size is not known yet
+    private static final int MAX_REQUESTED = 16;
     private static final AtomicIntegerFieldUpdater<DataBlockSender> STATE =
             AtomicIntegerFieldUpdater.newUpdater(DataBlockSender.class, "state");
-    private final AtomicInteger REQUESTED = new AtomicInteger();
-    private final SpscArrayQueue<DataBlock> queue = new SpscArrayQueue<>(PREFETCH);
+    // blocks that are requested, but not received yet
+    private final AtomicInteger requested = new AtomicInteger();
+    // blocks that are received, but not flushed to socket yet
+    private final AtomicLong inFlightBytes = new AtomicLong();
+    // blocks can be produced by many threads, but they are written by channel event loop only
+    private final MpscUnboundedArrayQueue<DataBlock> queue = new MpscUnboundedArrayQueue<>(MAX_REQUESTED);
     private final EventLoop eventLoop;
+    // guarded by channel event loop
+    private final InFlightWindow window;
     private volatile Flow.Subscription subscription;
     private volatile ChannelHandlerContext ctx;
     private volatile int state = UNSUBSCRIBED;
 
-    DataBlockSender(EventLoop eventLoop) {
+    DataBlockSender(EventLoop eventLoop, long windowBytes) {
         this.eventLoop = eventLoop;
+        this.window = new InFlightWindow(windowBytes);
     }
 
     @Override
@@ -65,46 +74,68 @@ final class DataBlockSender extends ChannelInboundHandlerAdapter implements Flow
      */
     private void drain() {
         DataBlock b;
-        int written = 0;
+        boolean written = false;
         while (ctx.channel().isWritable() && (b = queue.poll()) != null) {
-            ctx.channel().write(b).addListener(future -> {
-                if (future.isSuccess()) {
-                    REQUESTED.decrementAndGet();
-                    requestNext();
-                } else {
-                    onError(future.cause());
-                }
-            });
-            written++;
+            write(b);
+            written = true;
         }
 
-        if (written > 0) {
+        if (written) {
             ctx.channel().flush();
+            // next block is built while this one is being sent
+            requestNext();
         }
     }
 
+    private void write(DataBlock block) {
+        long bytes = block.bytes();
+        long start = System.nanoTime();
+        window.onBlock(bytes);
+
+        ctx.channel().write(block).addListener(future -> {
+            inFlightBytes.addAndGet(-bytes);
+            if (future.isSuccess()) {
+                window.onWritten(bytes, System.nanoTime() - start, ctx.channel().isWritable());
+                requestNext();
+            } else {
+                onError(future.cause());
+            }
+        });
+    }
+
     private void requestNext() {
-        if (state == SUBSCRIBED) {
-            if (REQUESTED.getAndIncrement() <= PREFETCH)
-                if (eventLoop.inEventLoop()) {
-                    subscription.request(1);
-                } else {
-                    eventLoop.execute(() -> {
-                        // recheck after execution
-                        if (state == SUBSCRIBED) {
-                            subscription.request(1);
-                        }
-                    });
+        if (state != SUBSCRIBED) {
+            return;
+        }
+
+        long blockBytes = window.blockBytes();
+        long inFlight = inFlightBytes.get();
+        int r = requested.get();
+        int n = 0;
+        // one block is always requested, so upstream is never stalled by window
+        while (r + n < MAX_REQUESTED
+                && (r + n == 0 || blockBytes > 0 && inFlight + (r + n + 1) * blockBytes <= window.bytes())) {
+            n++;
+        }
+
+        if (n > 0) {
+            int count = n;
+            requested.addAndGet(count);
+            eventLoop.execute(() -> {
+                // recheck after execution
+                if (state == SUBSCRIBED) {
+                    subscription.request(count);
                 }
-            else {
-                throw new IllegalStateException("Requested count is overgrowth");
-            }
+            });
         }
     }
 
     @Override
     public void handlerRemoved(ChannelHandlerContext ctx) {
-        STATE.set(this, TERMINATED);
+        // sender is removed when channel is returned to pool, so upstream that has not completed yet is not needed anymore
+        if (STATE.getAndSet(this, TERMINATED) == SUBSCRIBED) {
+            subscription.cancel();
+        }
         queue.drain(ReferenceCountUtil::release);
     }
 
@@ -120,11 +151,12 @@ final class DataBlockSender extends ChannelInboundHandlerAdapter implements Flow
     public void onSubscribe(Flow.Subscription subscription) {
         this.subscription = subscription;
         if (STATE.compareAndSet(this, UNSUBSCRIBED, SUBSCRIBED)) {
-            REQUESTED.set(PREFETCH);
+            // size of blocks is unknown until the first one is built
+            requested.set(1);
             if (eventLoop.inEventLoop()) {
-                subscription.request(PREFETCH);
+                subscription.request(1);
             } else {
-                eventLoop.execute(() -> subscription.request(PREFETCH));
+                eventLoop.execute(() -> subscription.request(1));
             }
         } else {
             throw new IllegalStateException("Unexpected state on onSubscribe()");
@@ -134,24 +166,15 @@ final class DataBlockSender extends ChannelInboundHandlerAdapter implements Flow
     @Override
     public void onNext(DataBlock item) {
         if (state == SUBSCRIBED) {
-            if (ctx != null && ctx.channel().isWritable()) {
-                ctx.channel().writeAndFlush(item).addListener(future -> {
-                    if (future.isSuccess()) {
-                        REQUESTED.decrementAndGet();
-                        requestNext();
-                    } else {
-                        onError(future.cause());
-                    }
-                });
-            } else {
-                // put to queue from single thread
-                if (eventLoop.inEventLoop()) {
-                    if (!queue.offer(item)) {
-                        eventuallyOffer(item);
-                    }
-                } else {
-                    eventuallyOffer(item);
-                }
+            // upstream may send blocks that are not requested, e.g. by linger timeout
+            requested.getAndUpdate(r -> r > 0 ? r - 1 : 0);
+            inFlightBytes.addAndGet(item.bytes());
+            queue.offer(item);
+
+            ChannelHandlerContext ctx = this.ctx;
+            // otherwise block is drained when handler is added
+            if (ctx != null) {
+                ctx.channel().eventLoop().execute(this::drain);
             }
         } else {
             // consume
@@ -170,24 +193,13 @@ final class DataBlockSender extends ChannelInboundHandlerAdapter implements Flow
     @Override
     public void onComplete() {
         if (STATE.compareAndSet(this, SUBSCRIBED, COMPLETE)) {
-            ctx.channel().eventLoop().execute(() -> {
-                // push all blocks into channel and close it
-                drain();
-
-                QueryContext queryContext = ctx.channel().attr(QUERY_CONTEXT_ATTR).get();
-
-                ((SendDataQueryContext) queryContext).completed();
-            });
+            // push all blocks into channel, query is completed after server responds with end of stream
+            ChannelHandlerContext ctx = this.ctx;
+            if (ctx != null) {
+                ctx.channel().eventLoop().execute(this::drain);
+            }
         } else {
             throw new IllegalStateException("Unexpected state on onComplete()");
         }
     }
-
-    private void eventuallyOffer(DataBlock item) {
-        eventLoop.execute(() -> {
-            if (!queue.offer(item)) {
-                eventuallyOffer(item);
-            }
-        });
-    }
 }
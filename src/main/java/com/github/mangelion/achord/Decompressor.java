@@ -0,0 +1,34 @@
+/*
+ * Copyright 2017-2018 Mangelion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.mangelion.achord;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Decompression engine behind {@link CompressionMethod}, the same thread-safety requirements as for {@link Compressor}
+ *
+ * @since 17.10.2026
+ */
+interface Decompressor {
+
+    /**
+     * Decompresses {@code srcLength} bytes of {@code src} into exactly {@code dstLength} bytes of {@code dst},
+     * indexes of buffers are not changed
+     */
+    void decompress(ByteBuf src, int srcIndex, int srcLength, ByteBuf dst, int dstIndex, int dstLength);
+}
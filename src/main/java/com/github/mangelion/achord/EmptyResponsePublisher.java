@@ -14,110 +14,40 @@
  * limitations under the License.
  */
 
+
 package com.github.mangelion.achord;
 
-import io.netty.bootstrap.Bootstrap;
-import io.netty.channel.ChannelFuture;
+import io.netty.channel.Channel;
 import io.netty.channel.EventLoopGroup;
-import io.netty.util.concurrent.Future;
-import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.channel.pool.ChannelPool;
 
 import java.util.concurrent.Flow;
-import java.util.concurrent.atomic.AtomicBoolean;
-
-import static com.github.mangelion.achord.BlockCompressingHandler.BLOCK_COMPRESSING_HANDLER;
-import static com.github.mangelion.achord.BlockDecompressingHandler.BLOCK_DECOMPRESSING_HANDLER;
-import static com.github.mangelion.achord.ClickHousePacketDecoder.CH_SERVER_COMPRESSION_LEVEL_ATTRIBUTE;
-import static com.github.mangelion.achord.ClickHousePacketDecoder.CH_SERVER_COMPRESSION_METHOD_ATTRIBUTE;
-import static com.github.mangelion.achord.QueryContext.QUERY_CONTEXT_ATTR;
 
 /**
  * @author Dmitriy Poluyanov
  * @since 14/02/2018
  */
-final class EmptyResponsePublisher<T> implements Flow.Publisher<Void> {
-    static final String BLOCK_COMPRESSOR = "blockCompressor";
-    private final Bootstrap bootstrap;
-    private final AuthData authData;
-    private final String query;
-    private final String queryId;
-    private final Settings settings;
-    private final Limits limits;
-    private final Flow.Publisher<T[]> source;
-    private final EventLoopGroup workersGroup;
-    private final EventLoopGroup compressionGroup;
+final class EmptyResponsePublisher<T> extends QueryResponsePublisher<Void, SendDataQueryContext<T>> {
+    private final Flow.Publisher<T> source;
+    private final BlockWriter<? super T> blockWriter;
+    private final ColumnBufferPool bufferPool;
 
-    EmptyResponsePublisher(Bootstrap bootstrap, EventLoopGroup workersGroup, EventLoopGroup compressionGroup,
+    EmptyResponsePublisher(ChannelPool pool, EventLoopGroup workersGroup,
                            AuthData authData, String queryId, String query, Settings settings, Limits limits,
-                           Flow.Publisher<T[]> source) {
-        this.bootstrap = bootstrap;
-        this.workersGroup = workersGroup;
-        this.compressionGroup = compressionGroup;
-        this.authData = authData;
-        this.query = query;
-        this.queryId = queryId;
-        this.settings = settings;
-        this.limits = limits;
+                           Flow.Publisher<T> source, BlockWriter<? super T> blockWriter, ColumnBufferPool bufferPool) {
+        super(pool, workersGroup, authData, queryId, query, settings, limits);
         this.source = source;
+        this.blockWriter = blockWriter;
+        this.bufferPool = bufferPool;
     }
 
     @Override
-    public void subscribe(Flow.Subscriber<? super Void> subscriber) {
-        subscriber.onSubscribe(new Subscription(subscriber));
+    SendDataQueryContext<T> createContext(Channel channel, Flow.Subscriber<? super Void> s) {
+        return new SendDataQueryContext<>(authData, queryId, query, settings, limits, channel, pool, source, blockWriter, s, workersGroup, bufferPool);
     }
 
-    final class Subscription implements Flow.Subscription, GenericFutureListener<Future<? super Void>> {
-        private final AtomicBoolean WIP = new AtomicBoolean();
-        private final Flow.Subscriber<? super Void> s;
-        volatile ChannelFuture cf;
-
-
-        private Subscription(Flow.Subscriber<? super Void> s) {
-            this.s = s;
-        }
-
-        // tries to connect to channel after first non-zero request has came
-        @Override
-        public synchronized void request(long n) {
-            if (!WIP.get() && n > 0 && WIP.compareAndSet(false, true)) {
-                cf = bootstrap.connect();
-                cf.channel().attr(QUERY_CONTEXT_ATTR)
-                        .set(new SendDataQueryContext<>(authData, queryId, query, settings, limits, cf.channel(), source, s,
-                                workersGroup));
-
-                cf.addListener(this);
-            }
-        }
-
-        @Override
-        public synchronized void cancel() {
-            if (cf != null) {
-                cf.removeListener(this)
-                        .addListener(future -> cf.channel().close().syncUninterruptibly())
-                        .syncUninterruptibly();
-            }
-        }
-
-        // invokes when channel became connected or connection fails
-        @Override
-        public void operationComplete(Future<? super Void> future) {
-            if (future.isSuccess()) {
-                // set additional settings
-                if (settings.isCompressionEnabled()) {
-                    cf.channel().attr(CH_SERVER_COMPRESSION_METHOD_ATTRIBUTE).set(settings.getNetworkCompressionMethod());
-                    cf.channel().attr(CH_SERVER_COMPRESSION_LEVEL_ATTRIBUTE).set(settings.getNetworkZstdCompressionLevel());
-                    cf.channel().pipeline().remove(ClickHouseClient.BLOCK_ENCODER);
-
-                    cf.channel().pipeline()
-                            .addFirst(compressionGroup, BLOCK_COMPRESSOR, BLOCK_COMPRESSING_HANDLER)
-                            .addAfter(compressionGroup, ClickHouseClient.PACKET_DECODER, "blockDecompressor", BLOCK_DECOMPRESSING_HANDLER);
-                }
-
-                QueryContext context = cf.channel().attr(QUERY_CONTEXT_ATTR).get();
-                context.onChannelConnected();
-            } else {
-                s.onError(future.cause());
-            }
-        }
+    @Override
+    void cancel(SendDataQueryContext<T> context) {
+        context.cancel();
     }
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017-2018 Mangelion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.mangelion.achord;
+
+/**
+ * Bounds bytes of blocks, that are requested from upstream or written to channel but not flushed to socket yet.
+ * <p>
+ * Window is tuned like congestion window of TCP: it grows by one block for every block that is written
+ * as fast as the fastest observed one (per byte), and halves when writing slows down twice or more or
+ * channel becomes unwritable, because blocks are queued in outbound buffer instead of being sent.
+ * So slow server is fed with few blocks and fast link gets enough blocks to be busy all the time.
+ * <p>
+ * All methods are invoked from channel event loop.
+ *
+ * @since 17.10.2026
+ */
+final class InFlightWindow {
+    // weight of the newest block size
+    private static final double ALPHA = 0.25;
+    // the fastest rate slowly becomes stale, so window grows again after temporary slowdown
+    private static final double DECAY = 1.02;
+    private final long maxBytes;
+    private long bytes;
+    private long blockBytes;
+    private double fastestNanosPerByte = Double.NaN;
+
+    InFlightWindow(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.bytes = Math.max(1, maxBytes / 4);
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    // average size of sent block, 0 until the first one is sent
+    long blockBytes() {
+        return blockBytes;
+    }
+
+    void onBlock(long size) {
+        blockBytes = blockBytes == 0 ? size : (long) (blockBytes + ALPHA * (size - blockBytes));
+    }
+
+    // invokes when block is flushed to socket
+    void onWritten(long size, long elapsedNanos, boolean writable) {
+        if (size <= 0) {
+            return;
+        }
+
+        double nanosPerByte = (double) elapsedNanos / size;
+        double fastest = fastestNanosPerByte;
+        if (Double.isNaN(fastest) || nanosPerByte < fastest) {
+            fastestNanosPerByte = nanosPerByte;
+        } else {
+            fastestNanosPerByte = fastest * DECAY;
+        }
+
+        if (!writable || nanosPerByte > 2 * fastest) {
+            bytes = Math.max(blockBytes, bytes / 2);
+        } else {
+            bytes = Math.min(maxBytes, bytes + blockBytes);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017-2018 Mangelion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.mangelion.achord;
+
+import io.netty.buffer.ByteBuf;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Resolving of {@link LZ4Factory#fastestInstance()} is synchronized, so it is done only once.
+ * lz4-java compressors are stateless and can be shared between compression threads.
+ *
+ * @since 17.10.2026
+ */
+final class Lz4Codec implements Compressor, Decompressor {
+    static final Lz4Codec LZ4_CODEC;
+    static final Lz4Codec LZ4HC_CODEC;
+    private static final int LZ4_MAX_INPUT_SIZE = 0x7E000000;
+    private static final int LZ4HC_MAX_LEVEL = 17;
+
+    static {
+        // use fastest possible instance for compression and decompression
+        LZ4Factory factory = LZ4Factory.fastestInstance();
+        LZ4Compressor[] high = new LZ4Compressor[LZ4HC_MAX_LEVEL + 1];
+        for (int level = 1; level <= LZ4HC_MAX_LEVEL; level++) {
+            high[level] = factory.highCompressor(level);
+        }
+
+        LZ4_CODEC = new Lz4Codec(null, factory.fastCompressor(), factory.fastDecompressor());
+        LZ4HC_CODEC = new Lz4Codec(high, null, factory.fastDecompressor());
+    }
+
+    // indexed by level, null for fast codec
+    private final LZ4Compressor[] highCompressors;
+    private final LZ4Compressor fastCompressor;
+    private final LZ4FastDecompressor decompressor;
+
+    private Lz4Codec(LZ4Compressor[] highCompressors, LZ4Compressor fastCompressor, LZ4FastDecompressor decompressor) {
+        this.highCompressors = highCompressors;
+        this.fastCompressor = fastCompressor;
+        this.decompressor = decompressor;
+    }
+
+    static int lz4CompressBound(long isize) {
+        return (isize) > LZ4_MAX_INPUT_SIZE ? 0 : (int) ((isize) + ((isize) / 255) + 16);
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return lz4CompressBound(length);
+    }
+
+    @Override
+    public int compress(ByteBuf src, int srcIndex, int srcLength, ByteBuf dst, int dstIndex, int maxDstLength, long level) {
+        LZ4Compressor compressor = highCompressors != null
+                ? highCompressors[(int) Math.max(1, Math.min(level, LZ4HC_MAX_LEVEL))]
+                : fastCompressor;
+        // lz4-java addresses memory from the start of nio buffer, so position is passed as offset
+        ByteBuffer dstNio = dst.internalNioBuffer(dstIndex, maxDstLength);
+        ByteBuffer srcNio = src.internalNioBuffer(srcIndex, srcLength);
+
+        return compressor.compress(srcNio, srcNio.position(), srcLength, dstNio, dstNio.position(), maxDstLength);
+    }
+
+    @Override
+    public void decompress(ByteBuf src, int srcIndex, int srcLength, ByteBuf dst, int dstIndex, int dstLength) {
+        ByteBuffer dstNio = dst.internalNioBuffer(dstIndex, dstLength);
+        ByteBuffer srcNio = src.internalNioBuffer(srcIndex, srcLength);
+
+        if (decompressor.decompress(srcNio, srcNio.position(), dstNio, dstNio.position(), dstLength) != srcLength) {
+            throw new RuntimeException("Cannot decompress with LZ4");
+        }
+    }
+}
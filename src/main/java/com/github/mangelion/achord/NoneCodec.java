@@ -0,0 +1,50 @@
+/*
+ * Copyright 2017-2018 Mangelion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.mangelion.achord;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Frames data without compression, that is useful for checksum verification only
+ *
+ * @since 17.10.2026
+ */
+final class NoneCodec implements Compressor, Decompressor {
+    static final NoneCodec NONE_CODEC = new NoneCodec();
+
+    private NoneCodec() { /* restricted */ }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return length;
+    }
+
+    @Override
+    public int compress(ByteBuf src, int srcIndex, int srcLength, ByteBuf dst, int dstIndex, int maxDstLength, long level) {
+        dst.setBytes(dstIndex, src, srcIndex, srcLength);
+        return srcLength;
+    }
+
+    @Override
+    public void decompress(ByteBuf src, int srcIndex, int srcLength, ByteBuf dst, int dstIndex, int dstLength) {
+        if (srcLength != dstLength) {
+            throw new RuntimeException("Uncompressed frame size does not match");
+        }
+        dst.setBytes(dstIndex, src, srcIndex, srcLength);
+    }
+}
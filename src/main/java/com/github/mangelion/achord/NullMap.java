@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017-2018 Mangelion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.mangelion.achord;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.Arrays;
+
+/**
+ * Null flags of Nullable column, that is being built. Flags are kept as bitmap, one bit per row,
+ * and are expanded into byte per row null map of Native format only when block is sent.
+ *
+ * @since 17.10.2026
+ */
+final class NullMap {
+    private long[] words;
+    private int size;
+
+    NullMap(int rows) {
+        this.words = new long[Math.max(1, (rows + 63) >>> 6)];
+    }
+
+    int size() {
+        return size;
+    }
+
+    // size of bitmap in bytes
+    int bytes() {
+        return (size + 7) >>> 3;
+    }
+
+    void add(boolean isNull) {
+        ensureCapacity(size + 1);
+        if (isNull) {
+            words[size >>> 6] |= 1L << size;
+        }
+        size++;
+    }
+
+    /**
+     * Appends the first count flags of bitmap, e.g. of {@link java.util.BitSet#toLongArray()}.
+     */
+    void addAll(long[] bits, int count) {
+        ensureCapacity(size + count);
+        int shift = size & 63;
+        int word = size >>> 6;
+        int n = (count + 63) >>> 6;
+        for (int i = 0; i < n; i++) {
+            long w = i < bits.length ? bits[i] : 0;
+            if (i == n - 1 && (count & 63) != 0) {
+                // flags beyond count are not appended
+                w &= (1L << count) - 1;
+            }
+            words[word + i] |= w << shift;
+            if (shift != 0 && w >>> (64 - shift) != 0) {
+                words[word + i + 1] |= w >>> (64 - shift);
+            }
+        }
+        size += count;
+    }
+
+    void addAll(NullMap other) {
+        addAll(other.words, other.size);
+    }
+
+    // not null flags of count rows
+    void skip(int count) {
+        ensureCapacity(size + count);
+        size += count;
+    }
+
+    /**
+     * Writes one byte per row, 1 for null and 0 for value.
+     */
+    void writeTo(ByteBuf out) {
+        out.ensureWritable(size);
+        int i = 0;
+        for (int word = 0; i < size; word++) {
+            long w = words[word];
+            int end = Math.min(size, i + 64);
+            if (w == 0) {
+                out.writeZero(end - i);
+                i = end;
+            } else {
+                for (; i < end; i++, w >>>= 1) {
+                    out.writeByte((int) w & 1);
+                }
+            }
+        }
+    }
+
+    private void ensureCapacity(int bits) {
+        int required = (bits + 63) >>> 6;
+        if (required > words.length) {
+            words = Arrays.copyOf(words, Math.max(required, words.length << 1));
+        }
+    }
+}
@@ -18,74 +18,120 @@ package com.github.mangelion.achord;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.EventLoop;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
 
-import java.lang.invoke.MethodHandles;
-import java.lang.invoke.VarHandle;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @author Dmitriy Poluyanov
  * @since 19/02/2018
  * In counterpart to this we need a Storage-Based processor, that can be more effective
  */
-final class ObjectsToBlockProcessor<T> implements Flow.Processor<T[], DataBlock> {
-    private static final int BLOCK_SIZE = 1024 * 1024;
+final class ObjectsToBlockProcessor<T> implements Flow.Processor<T, DataBlock> {
+    // initial guess of string size with its length prefix
+    private static final int DEFAULT_STRING_WIDTH = 16;
+    // stripes of contending threads take only part of block
+    private static final int LOCAL_STRIPE_SHIFT = 4;
+    // size of stripe is summed over all its columns, so it is measured once per that many rows, or more often near block bytes
+    private static final int MEASURE_ROWS = 64;
+    private static final int MAX_COLUMN_CAPACITY = 1 << 30;
     private static final int UNSUBSCRIBED = -1;
     private static final int SUBSCRIBED = 0;
     private static final int WIP = 1;
     private static final int COMPLETED = 2;
     private static final int ERROR = 3;
     private static final int CANCELLED = 4;
+    // signal of completion in queue of emitted blocks
+    private static final Object COMPLETE = new Object();
     private static final AtomicIntegerFieldUpdater<ObjectsToBlockProcessor> STATE =
             AtomicIntegerFieldUpdater.newUpdater(ObjectsToBlockProcessor.class, "state");
-    private static final VarHandle WRITE_LOCK;
-
-    static {
-        MethodHandles.Lookup l = MethodHandles.lookup();
-        try {
-            WRITE_LOCK = l.findVarHandle(ObjectsToBlockProcessor.class, "writeLock", int.class);
-        } catch (ReflectiveOperationException e) {
-            throw new Error(e);
-        }
-    }
-
     private final AtomicBoolean bufferReleased = new AtomicBoolean();
     private final ByteBufAllocator alloc;
     private final EventLoop eventLoop;
+    private final BlockWriter<? super T> blockWriter;
+    private final BlockInfo info;
+    private final int blockRows;
+    private final long blockBytes;
+    private final long lingerNanos;
+    private final ColumnBufferPool pool;
+    // expected bytes per row of every column, for strings it is running average of sent blocks,
+    // it is updated only by emitting thread, and read by any thread as estimate
+    private final int[] widths;
+    // rows of every item, 0 if items are of different size
+    private final int rowsPerItem;
+    // items that are requested from upstream, but not received yet
     private final AtomicLong requested = new AtomicLong();
+    // rows that were requested for blocks, but blocks were sent before they are filled
+    private final AtomicLong surplus = new AtomicLong();
+    // only for items of unknown size: rows of requested blocks, that are not received yet (negative if upstream sent more),
+    // and totals of received items, that estimate size of next ones
+    private final AtomicLong pendingRows = new AtomicLong();
+    private final AtomicLong receivedRows = new AtomicLong();
+    private final AtomicLong receivedItems = new AtomicLong();
+    private final AtomicReference<Generation> current = new AtomicReference<>();
+    // blocks and terminal signal, that wait for subscriber, and count of emit calls, that are not drained yet
+    private final ConcurrentLinkedQueue<Object> emitted = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger emitting = new AtomicInteger();
+    // subscriber got onComplete or onError, touched only by emitting thread
+    private boolean terminated;
+    // stripe of current thread, that is used when shared stripe is busy
+    private final ThreadLocal<Stripe> localStripe = new ThreadLocal<>();
     private volatile DataBlock sample;
     private volatile Flow.Subscription subscription;
     private volatile int state = UNSUBSCRIBED;
     private volatile Flow.Subscriber<? super DataBlock> subscriber;
-    private volatile ColumnWithTypeAndName[] columns;
-    private int rows;
-    private volatile int writeLock = 0;
 
-    ObjectsToBlockProcessor(DataBlock sample, EventLoop eventLoop, ByteBufAllocator alloc) {
+    ObjectsToBlockProcessor(DataBlock sample, EventLoop eventLoop, ByteBufAllocator alloc,
+                            BlockWriter<? super T> blockWriter, Settings settings, ColumnBufferPool pool) {
         this.sample = sample;
         this.eventLoop = eventLoop;
         this.alloc = alloc;
+        this.blockWriter = blockWriter;
+        this.info = sample.info;
+        this.blockRows = settings.getInsertBlockRows();
+        this.blockBytes = settings.getInsertBlockBytes();
+        this.lingerNanos = settings.getInsertBlockLingerNanos();
+        this.pool = pool;
+        this.rowsPerItem = blockWriter.rowsPerItem();
+        this.widths = new int[sample.columns.length];
+        for (ColumnWithTypeAndName column : sample.columns) {
+            checkWritable(column);
+        }
+        for (int i = 0; i < widths.length; i++) {
+            int width = fixedWidth(sample.columns[i]);
+            widths[i] = width > 0 ? width : DEFAULT_STRING_WIDTH;
+        }
     }
 
     @Override
     public void subscribe(Flow.Subscriber<? super DataBlock> subscriber) {
         this.subscriber = subscriber;
-        recreateColumns();
+        current.set(new Generation(createColumns(blockRows)));
         if (STATE.compareAndSet(this, SUBSCRIBED, WIP)) {
             subscriber.onSubscribe(new Flow.Subscription() {
                 @Override
                 public void request(long n) {
                     if (state == WIP) {
-                        // suppose that in future some number of buffers should be on-the-fly for immediately sending after request
-                        requested.addAndGet(n * BLOCK_SIZE);
+                        long rows = n * blockRows;
+                        // rows of blocks, that were sent before they are filled, are still requested from upstream
+                        long s = surplus.getAndSet(0);
+                        if (s > rows) {
+                            surplus.addAndGet(s - rows);
+                            return;
+                        }
 
                         // request data for n-next blocks
-                        subscription.request(n * BLOCK_SIZE);
+                        requestRows(rows - s);
                     } else {
                         onError(new IllegalStateException("request(n) come to unexpected size"));
                     }
@@ -98,6 +144,7 @@ final class ObjectsToBlockProcessor<T> implements Flow.Processor<T[], DataBlock>
                         if ((s = state) == WIP || s == SUBSCRIBED) {
                             if (STATE.compareAndSet(ObjectsToBlockProcessor.this, s, CANCELLED)) {
                                 subscription.cancel();
+                                freeBuffers();
                                 return;
                             }
                         } else {
@@ -112,34 +159,125 @@ final class ObjectsToBlockProcessor<T> implements Flow.Processor<T[], DataBlock>
         }
     }
 
-    private void recreateColumns() {
+    private void requestRows(long rows) {
+        if (rowsPerItem > 0) {
+            long count = (rows + rowsPerItem - 1) / rowsPerItem;
+            if (count > 0) {
+                requested.addAndGet(count);
+                requestUpstream(count);
+            }
+        } else {
+            pendingRows.addAndGet(rows);
+            requestItems();
+        }
+    }
+
+    // items of unknown size are requested, while their estimated rows do not exceed pending rows,
+    // so upstream is asked for a few batches per block instead of a batch per row
+    private void requestItems() {
+        long count;
+        synchronized (pendingRows) {
+            long pending = pendingRows.get();
+            long items = requested.get();
+            long received = receivedItems.get();
+            if (received == 0) {
+                // size is not known until the first item is written
+                count = items == 0 && pending > 0 ? 1 : 0;
+            } else {
+                long estimated = Math.max(1, receivedRows.get() / received);
+                count = (pending + estimated - 1) / estimated - items;
+            }
+            if (count <= 0) {
+                return;
+            }
+            requested.addAndGet(count);
+        }
+        requestUpstream(count);
+    }
+
+    // subscription is requested serially from event loop, while items and blocks come from any thread
+    private void requestUpstream(long count) {
+        if (eventLoop.inEventLoop()) {
+            subscription.request(count);
+        } else {
+            eventLoop.execute(() -> subscription.request(count));
+        }
+    }
+
+    // columns are pre-sized for expected rows, so they are not reallocated while growing
+    private ColumnWithTypeAndName[] createColumns(int rows) {
         ColumnWithTypeAndName[] cs = new ColumnWithTypeAndName[sample.columns.length];
         for (int i = 0; i < sample.columns.length; i++) {
-            // todo: data for buffers can be written independently (by some bunch of buffers)
-            // and then collected into composite buffer (before forming resulting dataBlock)
-            ByteBuf data = alloc.directBuffer();
-            cs[i] = new ColumnWithTypeAndName(sample.columns[i].type, sample.columns[i].name, data);
+            long capacity = Math.min(Math.min((long) widths[i] * rows, blockBytes), MAX_COLUMN_CAPACITY);
+            cs[i] = createColumn(sample.columns[i], rows, (int) capacity);
         }
-        columns = cs;
-        rows = 0;
+        return cs;
+    }
+
+    // null map of Nullable column is kept as bitmap, its buffer is allocated when block is completed
+    private ColumnWithTypeAndName createColumn(ColumnWithTypeAndName sample, int rows, int capacity) {
+        if (sample.type == ColumnType.NULLABLE) {
+            return sample.with(Unpooled.EMPTY_BUFFER, createColumn(sample.nested, rows, capacity), null, new NullMap(rows));
+        }
+        if (sample.type == ColumnType.LOW_CARDINALITY) {
+            return createDictionaryColumn(sample, rows);
+        }
+        if (sample.type == ColumnType.ARRAY) {
+            ByteBuf offsets = pool.acquire(alloc, (int) Math.min(8L * rows, MAX_COLUMN_CAPACITY));
+            return sample.with(offsets, createColumn(sample.nested, rows, capacity), null, null);
+        }
+        return sample.with(pool.acquire(alloc, capacity), null, null, null);
+    }
+
+    // rows of LowCardinality column keep UInt32 indexes of values in dictionary until block is completed
+    private ColumnWithTypeAndName createDictionaryColumn(ColumnWithTypeAndName sample, int rows) {
+        ByteBuf indexes = pool.acquire(alloc, (int) Math.min(4L * rows, MAX_COLUMN_CAPACITY));
+        return new ColumnWithTypeAndName(sample.type, sample.typeName, sample.name, indexes, null, null, null,
+                new StringDictionary(ColumnType.isNullableDictionary(sample)));
+    }
+
+    // column, that keeps values of column
+    private static ColumnWithTypeAndName values(ColumnWithTypeAndName column) {
+        while (column.nested != null) {
+            column = column.nested;
+        }
+        return column;
+    }
+
+    // size of values of one row, or 0 if it is variable
+    // only LowCardinality(String) and LowCardinality(Nullable(String)) dictionaries are built,
+    // so insert into other LowCardinality columns fails before any row is requested
+    private static void checkWritable(ColumnWithTypeAndName column) {
+        for (ColumnWithTypeAndName c = column; c != null; c = c.nested) {
+            if (c.type == ColumnType.LOW_CARDINALITY && (c != column || c.nested.type != ColumnType.STRING)) {
+                throw new IllegalArgumentException("Column " + column.name + " of type " + column.typeName + " can not be written");
+            }
+        }
+    }
+
+    private static int fixedWidth(ColumnWithTypeAndName column) {
+        if (column.type == ColumnType.LOW_CARDINALITY) {
+            return 4;
+        }
+        for (ColumnWithTypeAndName c = column; c.nested != null; c = c.nested) {
+            if (c.type == ColumnType.ARRAY) {
+                return 0;
+            }
+        }
+        return ColumnType.width(values(column).type);
     }
 
     private void freeBuffers() {
         if (bufferReleased.compareAndSet(false, true)) {
+            Generation gen = current.get();
+            // columns of generation are released by the last writer, if somebody still writes into them
+            if (gen != null && gen.seal()) {
+                flush(gen, false);
+            }
             if (sample != null) {
                 ReferenceCountUtil.release(sample);
                 sample = null;
             }
-            if (columns != null) {
-                for (int i = 0; i < columns.length; i++) {
-                    // columns[i] can be null if error happens on creation stage
-                    if (columns[i] != null && columns[i].data.refCnt() > 0)
-                        // release once
-                        ReferenceCountUtil.release(columns[i].data);
-                }
-
-                columns = null;
-            }
         }
     }
 
@@ -157,69 +295,273 @@ final class ObjectsToBlockProcessor<T> implements Flow.Processor<T[], DataBlock>
         }
     }
 
-    // we can do better without synchronization and with avoiding all contention problems but something later
-    // with another algorithm that could be applied as below:
-    //      1) write into current block under cas
-    //      2) if cas write is failed create(or get from special cache) new block and write into (but keep global counter)
-    //      3) after rows counter exceeded threshold (1024 * 1024) switch this couple of blocks into merge state
-    //         note: neither new writes can be done to this blocks.
-    //      4) when last thread writes into blocks in merge state (probably should be controlled by another counter)
-    //         the thread pushes this blocks into subscriber onNext chain
+    // Producers may call onNext from many threads, so rows are written without global lock:
+    //      1) write into shared stripe of current generation under cas
+    //      2) if cas is failed write into stripe of current thread (but keep global counter of generation)
+    //      3) after rows or bytes counter exceeded threshold new generation replaces current one,
+    //         and old one is sealed, so neither new writes can be done to its stripes
+    //         (the same is done by timer on worker event loop, when rows linger in generation too long)
+    //      4) the last thread, that leaves sealed generation, merges its stripes into block
+    //         and queues the block for subscriber
+    //      5) blocks of concurrently flushed generations, completion and error are passed to subscriber
+    //         by one thread at a time, whichever of them finds queue idle, so subscriber gets signals serially
     @Override
-    public void onNext(T[] item) {
+    public void onNext(T item) {
         try {
-            if (state == WIP) {
-                long left;
-                if ((left = requested.decrementAndGet()) >= 0) {
-                    DataBlock blockToWrite = null;
-                    for (; ; ) {
-                        if (WRITE_LOCK.compareAndSet(this, 0, 1)) {
-                            try {
-                                for (int i = 0; i < columns.length; i++) {
-                                    ColumnWithTypeAndName c = columns[i];
-                                    ColumnType.write(c.type, item[i], c.data);
-                                }
-
-                                if (++rows >= BLOCK_SIZE) {
-                                    blockToWrite = new DataBlock(sample.info, columns, rows);
-                                    recreateColumns();
-                                }
-
-                                break;
-                            } finally {
-                                writeLock = 0;
-                            }
-                        }
-                    }
+            if (requested.decrementAndGet() < 0) {
+                throw new IllegalStateException("onNext produces unexpected count of elements");
+            }
 
-                    if (blockToWrite != null) {
+            for (; ; ) {
+                if (state != WIP) {
+                    // possible should be treated as ignore
+                    throw new IllegalStateException("onNext passed to illegal state");
+                }
+
+                Generation gen = current.get();
+                if (!gen.enter()) {
+                    // generation is replaced before it is sealed, so the next attempt sees new one
+                    Thread.onSpinWait();
+                    continue;
+                }
+
+                int written;
+                try {
+                    Stripe stripe = gen.shared;
+                    if (stripe.tryLock()) {
                         try {
-                            subscriber.onNext(blockToWrite);
-                        } catch (Throwable e) {
-                            // block can does not reach any channel handler
-                            if (blockToWrite.refCnt() > 0)
-                                ReferenceCountUtil.release(blockToWrite);
-                            throw e;
+                            written = stripe.write(item);
+                        } finally {
+                            stripe.unlock();
                         }
+                    } else {
+                        written = localStripe(gen).write(item);
+                    }
+                    if (rowsPerItem == 0) {
+                        // accounted before block is flushed, so its overshoot is not requested twice
+                        pendingRows.addAndGet(-written);
+                        receivedRows.addAndGet(written);
+                        receivedItems.incrementAndGet();
                     }
+
+                    int rows = gen.rows.addAndGet(written);
+                    if (rows >= blockRows || gen.bytes.get() >= blockBytes) {
+                        rotate(gen);
+                    } else if (lingerNanos > 0 && rows == written && written > 0) {
+                        // the first rows of generation start its timer
+                        gen.timer = eventLoop.schedule(() -> linger(gen), lingerNanos, TimeUnit.NANOSECONDS);
+                    }
+                } finally {
+                    if (gen.exit()) {
+                        flush(gen, state == WIP);
+                    }
+                }
+
+                if (rowsPerItem == 0) {
+                    requestItems();
+                }
+                return;
+            }
+        } catch (Throwable e) {
+            onError(e);
+        }
+    }
+
+    // replaces current generation, so its rows are merged by the last writer that leaves it
+    private void rotate(Generation gen) {
+        if (current.get() != gen) {
+            return;
+        }
+
+        Generation next = new Generation(createColumns(blockRows));
+        if (current.compareAndSet(gen, next)) {
+            if (gen.seal()) {
+                flush(gen, state == WIP);
+            }
+            // buffers are freed concurrently, so nobody else releases next generation
+            if (bufferReleased.get() && next.seal()) {
+                flush(next, false);
+            }
+        } else {
+            next.release();
+        }
+    }
+
+    // synchronized with onComplete, so rows are not lost between completion and sending of last block
+    private synchronized void linger(Generation gen) {
+        if (state == WIP) {
+            rotate(gen);
+        }
+    }
+
+    private Stripe localStripe(Generation gen) {
+        Stripe stripe = localStripe.get();
+        if (stripe == null || stripe.gen != gen) {
+            stripe = new Stripe(gen, createColumns(Math.max(1, blockRows >> LOCAL_STRIPE_SHIFT)));
+            gen.stripes.add(stripe);
+            localStripe.set(stripe);
+        }
+        return stripe;
+    }
+
+    // merges stripes of sealed generation, nobody writes into them anymore
+    private void flush(Generation gen, boolean emit) {
+        ColumnWithTypeAndName[] columns = gen.shared.columns;
+        int rows = gen.shared.rows;
+
+        Stripe stripe;
+        while ((stripe = gen.stripes.poll()) != null) {
+            for (int i = 0; i < columns.length; i++) {
+                if (emit) {
+                    merge(columns[i], stripe.columns[i]);
+                }
+                release(stripe.columns[i]);
+            }
+            rows += stripe.rows;
+        }
+
+        if (gen.timer != null) {
+            gen.timer.cancel(false);
+        }
+
+        if (emit) {
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = complete(columns[i]);
+            }
+        }
+
+        DataBlock block = new DataBlock(info, columns, rows, pool);
+        if (emit && rows > 0) {
+            emit(block);
+        } else {
+            block.release();
+        }
+    }
+
+    // queues block or terminal signal, and drains queue unless another thread is already draining it
+    private void emit(Object signal) {
+        emitted.add(signal);
+        if (emitting.getAndIncrement() != 0) {
+            return;
+        }
+        for (int missed = 1; missed != 0; missed = emitting.addAndGet(-missed)) {
+            Object s;
+            while ((s = emitted.poll()) != null) {
+                deliver(s);
+            }
+        }
+    }
+
+    private void deliver(Object signal) {
+        if (!(signal instanceof DataBlock)) {
+            if (!terminated) {
+                terminated = true;
+                if (signal == COMPLETE) {
+                    subscriber.onComplete();
                 } else {
-                    throw new IllegalStateException("onNext produces unexpected count of elements");
+                    subscriber.onError((Throwable) signal);
                 }
-            } else {
-                // possible should be treated as ignore
-                throw new IllegalStateException("onNext passed to illegal state");
             }
+            return;
+        }
+
+        DataBlock block = (DataBlock) signal;
+        if (terminated || state == ERROR || state == CANCELLED) {
+            block.release();
+            return;
+        }
+        int rows = block.rows;
+        if (rows > 0) {
+            if (rows < blockRows) {
+                surplus.addAndGet(blockRows - rows);
+            } else if (rows > blockRows) {
+                // block took rows of next requested blocks
+                requestRows(rows - blockRows);
+            }
+            for (int i = 0; i < widths.length; i++) {
+                if (fixedWidth(block.columns[i]) == 0) {
+                    ColumnWithTypeAndName values = values(block.columns[i]);
+                    int width = Math.min((values.data.readableBytes() + rows - 1) / rows, MAX_COLUMN_CAPACITY);
+                    widths[i] = (widths[i] + width + 1) >>> 1;
+                }
+            }
+        }
+        try {
+            subscriber.onNext(block);
         } catch (Throwable e) {
+            // block can does not reach any channel handler
+            if (block.refCnt() > 0)
+                ReferenceCountUtil.release(block);
+            // subscriber gets error instead of the rest of blocks, also if processor is already completed
+            terminated = true;
+            subscriber.onError(e);
             onError(e);
         }
     }
 
+    // appends rows of stripe to column of block
+    private static void merge(ColumnWithTypeAndName to, ColumnWithTypeAndName from) {
+        if (to.nulls != null) {
+            to.nulls.addAll(from.nulls);
+        } else if (to.dictionary != null) {
+            // indexes of stripe are replaced by indexes of the same values in dictionary of block
+            int[] indexes = to.dictionary.addAll(from.dictionary);
+            to.data.ensureWritable(from.data.readableBytes());
+            for (int i = from.data.readerIndex(); i < from.data.writerIndex(); i += 4) {
+                to.data.writeIntLE(indexes[from.data.getIntLE(i)]);
+            }
+        } else if (to.type == ColumnType.ARRAY) {
+            // offsets of stripe are shifted to the end of elements of block
+            ByteBuf offsets = to.data;
+            long base = offsets.isReadable() ? offsets.getLongLE(offsets.writerIndex() - 8) : 0;
+            offsets.ensureWritable(from.data.readableBytes());
+            for (int i = from.data.readerIndex(); i < from.data.writerIndex(); i += 8) {
+                offsets.writeLongLE(base + from.data.getLongLE(i));
+            }
+        } else {
+            to.data.writeBytes(from.data);
+        }
+        if (to.nested != null) {
+            merge(to.nested, from.nested);
+        }
+    }
+
+    // expands null flags of Nullable columns, also of nested ones, into null maps, the only form that server accepts,
+    // and serializes dictionaries of LowCardinality columns together with indexes
+    private ColumnWithTypeAndName complete(ColumnWithTypeAndName column) {
+        if (column.dictionary != null) {
+            ByteBuf data = pool.acquire(alloc, (int) Math.min(32 + column.dictionary.bytes() + column.data.readableBytes(), MAX_COLUMN_CAPACITY));
+            ColumnType.writeLowCardinality(column.dictionary, column.data, data);
+            if (!pool.recycle(column.data)) {
+                column.data.release();
+            }
+            return column.with(data, null, null, null);
+        }
+        if (column.nested == null) {
+            return column;
+        }
+        if (column.type != ColumnType.NULLABLE) {
+            return column.with(column.data, complete(column.nested), null, null);
+        }
+        ByteBuf nullMap = pool.acquire(alloc, column.nulls.size());
+        column.nulls.writeTo(nullMap);
+        return column.with(nullMap, complete(column.nested), null, null);
+    }
+
+    private void release(ColumnWithTypeAndName column) {
+        for (ColumnWithTypeAndName stream = column; stream != null; stream = stream.nested) {
+            if (!pool.recycle(stream.data)) {
+                stream.data.release();
+            }
+        }
+    }
+
     @Override
     public synchronized void onError(Throwable throwable) {
         try {
             if (STATE.compareAndSet(this, WIP, ERROR)) {
                 subscription.cancel();
-                subscriber.onError(throwable);
+                emit(throwable);
             }
         } finally {
             freeBuffers();
@@ -230,13 +572,120 @@ final class ObjectsToBlockProcessor<T> implements Flow.Processor<T[], DataBlock>
     public synchronized void onComplete() {
         try {
             if (STATE.compareAndSet(this, WIP, COMPLETED)) {
-                if (rows > 0) {
-                    subscriber.onNext((DataBlock) DataBlock.EMPTY.retain());
+                // all onNext calls are returned, so nobody writes into current generation
+                Generation gen = current.get();
+                if (bufferReleased.compareAndSet(false, true) && gen.seal()) {
+                    flush(gen, true);
                 }
-                subscriber.onComplete();
+                // empty block notifies server about end of data
+                emit(DataBlock.EMPTY.retain());
+                emit(COMPLETE);
             }
         } finally {
-            freeBuffers();
+            if (sample != null) {
+                ReferenceCountUtil.release(sample);
+                sample = null;
+            }
+        }
+    }
+
+    /**
+     * Rows, that are written until threshold is exceeded, they are merged into one block.
+     */
+    private final class Generation {
+        private static final int SEALED = Integer.MIN_VALUE;
+        // sealed bit and number of writers inside, so sealing and entering can not interleave
+        private final AtomicInteger writers = new AtomicInteger();
+        final AtomicInteger rows = new AtomicInteger();
+        final AtomicLong bytes = new AtomicLong();
+        final Stripe shared;
+        // stripes of threads, that did not get shared stripe
+        final ConcurrentLinkedQueue<Stripe> stripes = new ConcurrentLinkedQueue<>();
+        volatile ScheduledFuture<?> timer;
+
+        Generation(ColumnWithTypeAndName[] columns) {
+            this.shared = new Stripe(this, columns);
+        }
+
+        void release() {
+            for (ColumnWithTypeAndName column : shared.columns) {
+                ObjectsToBlockProcessor.this.release(column);
+            }
+        }
+
+        boolean enter() {
+            for (; ; ) {
+                int s = writers.get();
+                if ((s & SEALED) != 0) {
+                    return false;
+                }
+                if (writers.compareAndSet(s, s + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        // returns true if generation is sealed and caller is the last writer, so it should flush generation
+        boolean exit() {
+            return writers.decrementAndGet() == SEALED;
+        }
+
+        // returns true if generation is sealed by caller and there are no writers, so caller should flush it
+        boolean seal() {
+            for (; ; ) {
+                int s = writers.get();
+                if ((s & SEALED) != 0) {
+                    return false;
+                }
+                if (writers.compareAndSet(s, s | SEALED)) {
+                    return s == 0;
+                }
+            }
+        }
+    }
+
+    private final class Stripe {
+        final Generation gen;
+        final ColumnWithTypeAndName[] columns;
+        // writer is bound to columns of stripe
+        private final RowWriter writer = new RowWriter();
+        private final AtomicBoolean lock = new AtomicBoolean();
+        int rows;
+        long bytes;
+        // rows, after which size of stripe is measured again
+        private int measureRows;
+
+        Stripe(Generation gen, ColumnWithTypeAndName[] columns) {
+            this.gen = gen;
+            this.columns = columns;
+            writer.target(columns);
+        }
+
+        boolean tryLock() {
+            return !lock.get() && lock.compareAndSet(false, true);
+        }
+
+        void unlock() {
+            lock.set(false);
+        }
+
+        int write(T item) {
+            int written = blockWriter.write(item, writer);
+            rows += written;
+            if (rows < measureRows) {
+                return written;
+            }
+
+            long size = 0;
+            for (ColumnWithTypeAndName column : columns) {
+                size += column.bytes();
+            }
+            long total = gen.bytes.addAndGet(size - bytes);
+            bytes = size;
+            // rows, that fit into the rest of block bytes, are estimated by average row of stripe
+            long left = (blockBytes - total) / Math.max(1, size / Math.max(1, rows));
+            measureRows = rows + (int) Math.max(1, Math.min(MEASURE_ROWS, left / 2));
+            return written;
         }
     }
 }
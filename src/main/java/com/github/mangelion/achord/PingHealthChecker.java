@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017-2018 Mangelion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.mangelion.achord;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.channel.pool.ChannelHealthChecker;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.github.mangelion.achord.ClickHouseChannelPoolHandler.LAST_RELEASED_ATTRIBUTE;
+import static com.github.mangelion.achord.QueryContext.QUERY_CONTEXT_ATTR;
+
+/**
+ * Checks that channel which was idle for a while in pool is still alive on server side by Ping/Pong round trip.
+ * Channels that were released recently are considered healthy without additional round trip.
+ *
+ * @since 17.10.2026
+ */
+final class PingHealthChecker implements ChannelHealthChecker {
+    static final PingHealthChecker PING_HEALTH_CHECKER = new PingHealthChecker();
+    private static final long PING_AFTER_IDLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long PONG_TIMEOUT_MILLIS = 5000;
+
+    private PingHealthChecker() { /* restricted */ }
+
+    @Override
+    public Future<Boolean> isHealthy(Channel channel) {
+        EventLoop loop = channel.eventLoop();
+        if (!channel.isActive()) {
+            return loop.newSucceededFuture(Boolean.FALSE);
+        }
+
+        Long lastReleased = channel.attr(LAST_RELEASED_ATTRIBUTE).get();
+        if (lastReleased != null && System.nanoTime() - lastReleased < PING_AFTER_IDLE_NANOS) {
+            return loop.newSucceededFuture(Boolean.TRUE);
+        }
+
+        Promise<Boolean> healthy = loop.newPromise();
+        PingQueryContext context = new PingQueryContext(healthy);
+        channel.attr(QUERY_CONTEXT_ATTR).set(context);
+        channel.writeAndFlush(PingMessage.PING_MESSAGE).addListener(future -> {
+            if (!future.isSuccess()) {
+                healthy.trySuccess(Boolean.FALSE);
+            }
+        });
+
+        ScheduledFuture<?> timeout = loop.schedule(() -> healthy.trySuccess(Boolean.FALSE), PONG_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        healthy.addListener(future -> {
+            timeout.cancel(false);
+            channel.attr(QUERY_CONTEXT_ATTR).compareAndSet(context, null);
+        });
+
+        return healthy;
+    }
+
+    private static final class PingQueryContext implements QueryContext {
+        private final Promise<Boolean> healthy;
+
+        PingQueryContext(Promise<Boolean> healthy) {
+            this.healthy = healthy;
+        }
+
+        @Override
+        public AuthData getAuthData() {
+            throw new IllegalStateException("Ping does not require authentication");
+        }
+
+        @Override
+        public void onChannelConnected() {
+            throw new IllegalStateException("Ping is sent only into connected channel");
+        }
+
+        @Override
+        public void onClickHouseServerInfoReceived(ClickHouseServerInfo serverInfo) {
+            healthy.trySuccess(Boolean.FALSE);
+        }
+
+        @Override
+        public void onDataBlockReceived(DataBlock block) {
+            block.release();
+            healthy.trySuccess(Boolean.FALSE);
+        }
+
+        @Override
+        public void onServerExceptionCaught(ClickHouseServerException exception) {
+            healthy.trySuccess(Boolean.FALSE);
+        }
+
+        @Override
+        public void onEndOfStream() {
+            healthy.trySuccess(Boolean.FALSE);
+        }
+
+        @Override
+        public void onPongReceived() {
+            healthy.trySuccess(Boolean.TRUE);
+        }
+
+        @Override
+        public void onChannelExceptionCaught(Throwable cause) {
+            healthy.trySuccess(Boolean.FALSE);
+        }
+    }
+}
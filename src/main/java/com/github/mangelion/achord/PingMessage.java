@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017-2018 Mangelion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.mangelion.achord;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+/**
+ * @since 17.10.2026
+ */
+final class PingMessage extends ClientMessage {
+    static final PingMessage PING_MESSAGE = new PingMessage();
+    private static final int PING_MSG_ID = 0x04;
+
+    private PingMessage() { /* restricted */ }
+
+    @Override
+    ByteBuf createPayload(ByteBufAllocator alloc) {
+        ByteBuf buf = alloc.directBuffer(1);
+        writeVarUInt(buf, PING_MSG_ID);
+        return buf;
+    }
+}
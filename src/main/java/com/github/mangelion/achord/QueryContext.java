@@ -39,5 +39,7 @@ interface QueryContext {
 
     void onEndOfStream();
 
+    void onPongReceived();
+
     void onChannelExceptionCaught(Throwable cause);
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2017-2018 Mangelion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.mangelion.achord;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.pool.ChannelPool;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+
+import java.util.concurrent.Flow;
+
+import static com.github.mangelion.achord.QueryContext.QUERY_CONTEXT_ATTR;
+
+/**
+ * Acquires channel from pool after first non-zero request and drives {@link QueryContext} of acquired channel
+ *
+ * @since 17.10.2026
+ */
+abstract class QueryResponsePublisher<R, C extends QueryContext> implements Flow.Publisher<R> {
+    final ChannelPool pool;
+    final AuthData authData;
+    final String query;
+    final String queryId;
+    final Settings settings;
+    final Limits limits;
+    final EventLoopGroup workersGroup;
+
+    QueryResponsePublisher(ChannelPool pool, EventLoopGroup workersGroup,
+                           AuthData authData, String queryId, String query, Settings settings, Limits limits) {
+        this.pool = pool;
+        this.workersGroup = workersGroup;
+        this.authData = authData;
+        this.query = query;
+        this.queryId = queryId;
+        this.settings = settings;
+        this.limits = limits;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super R> subscriber) {
+        subscriber.onSubscribe(new Subscription(subscriber));
+    }
+
+    abstract C createContext(Channel channel, Flow.Subscriber<? super R> s);
+
+    // invokes on every request(n) after context is created
+    void request(C context, long n) {
+    }
+
+    // context is responsible for returning broken channel to pool
+    abstract void cancel(C context);
+
+    final class Subscription implements Flow.Subscription, FutureListener<Channel> {
+        private final Flow.Subscriber<? super R> s;
+        private Future<Channel> acquired;
+        private C context;
+        // demand that comes before channel is acquired
+        private long pending;
+        private boolean cancelled;
+
+        private Subscription(Flow.Subscriber<? super R> s) {
+            this.s = s;
+        }
+
+        // tries to acquire channel after first non-zero request has came
+        @Override
+        public synchronized void request(long n) {
+            if (cancelled) {
+                return;
+            }
+
+            if (acquired == null && n > 0) {
+                acquired = pool.acquire();
+                acquired.addListener(this);
+            }
+
+            if (context != null) {
+                QueryResponsePublisher.this.request(context, n);
+            } else if (n > 0) {
+                pending = pending + n < 0 ? Long.MAX_VALUE : pending + n;
+            }
+        }
+
+        @Override
+        public synchronized void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                if (context != null) {
+                    QueryResponsePublisher.this.cancel(context);
+                }
+            }
+        }
+
+        // invokes when channel is acquired (connected and initialized for new channel) or acquisition fails
+        @Override
+        public synchronized void operationComplete(Future<Channel> future) {
+            if (!future.isSuccess()) {
+                s.onError(future.cause());
+                return;
+            }
+
+            Channel channel = future.getNow();
+            if (cancelled) {
+                pool.release(channel);
+                return;
+            }
+
+            context = createContext(channel, s);
+            channel.attr(QUERY_CONTEXT_ATTR).set(context);
+
+            if (pending > 0) {
+                QueryResponsePublisher.this.request(context, pending);
+            }
+
+            context.onChannelConnected();
+        }
+    }
+}
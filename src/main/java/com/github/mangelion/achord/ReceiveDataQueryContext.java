@@ -0,0 +1,234 @@
+/*
+ * Copyright 2017-2018 Mangelion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.mangelion.achord;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.channel.pool.ChannelPool;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams blocks of query result to subscriber.
+ * Server pushes blocks as fast as it can, so backpressure is achieved by switching off auto read on channel
+ * when subscriber does not keep up, thereby only {@link #PREFETCH} decoded blocks are kept on heap.
+ *
+ * @since 17.10.2026
+ */
+final class ReceiveDataQueryContext implements QueryContext {
+    private static final int STATE_DISCONNECTED = 0;
+    private static final int STATE_CONNECTED = 1;
+    private static final int STATE_SERVER_INFO_RECEIVED = 2;
+    private static final int STATE_TERMINATED = 3;
+    private static final int PREFETCH = 4;
+    private final AuthData authData;
+    private final String query;
+    private final String queryId;
+    private final Settings settings;
+    private final Limits limits;
+    private final Channel channel;
+    private final ChannelPool pool;
+    private final Flow.Subscriber<? super DataBlock> s;
+    // all operations with queue, requested and endOfStream are executed on this event loop
+    private final EventLoop eventLoop;
+    private final AtomicInteger STATE = new AtomicInteger(STATE_DISCONNECTED);
+    private final ArrayDeque<DataBlock> queue = new ArrayDeque<>(PREFETCH);
+    private long requested;
+    private boolean endOfStream;
+    private GenericFutureListener<Future<? super Void>> catchErrorListener = future -> {
+        if (!future.isSuccess()) {
+            onChannelExceptionCaught(future.cause());
+        }
+    };
+
+    ReceiveDataQueryContext(AuthData authData, String queryId,
+                            String query, Settings settings, Limits limits,
+                            Channel channel, ChannelPool pool, Flow.Subscriber<? super DataBlock> s, EventLoop eventLoop) {
+        this.authData = authData;
+        this.query = query;
+        this.queryId = queryId;
+        this.settings = settings;
+        this.limits = limits;
+        this.channel = channel;
+        this.pool = pool;
+        this.s = s;
+        this.eventLoop = eventLoop;
+    }
+
+    @Override
+    public AuthData getAuthData() {
+        return authData;
+    }
+
+    @Override
+    public void onChannelConnected() {
+        int state;
+        if ((state = STATE.compareAndExchange(STATE_DISCONNECTED, STATE_CONNECTED)) == STATE_DISCONNECTED) {
+            ClickHouseServerInfo serverInfo = channel.attr(ClickHouseServerInfo.CH_SERVER_INFO_ATTRIBUTE).get();
+            if (serverInfo != null) {
+                // pooled channel is already handshaken
+                onClickHouseServerInfoReceived(serverInfo);
+            } else {
+                channel.writeAndFlush(new HelloMessage(authData))
+                        .addListener(catchErrorListener);
+            }
+        } else {
+            throw new IllegalStateException("Context expected to be in STATE_DISCONNECTED but got " + state);
+        }
+    }
+
+    @Override
+    public void onClickHouseServerInfoReceived(ClickHouseServerInfo serverInfo) {
+        int state;
+        if ((state = STATE.compareAndExchange(STATE_CONNECTED, STATE_SERVER_INFO_RECEIVED)) == STATE_CONNECTED) {
+            channel.write(new SendQueryMessage(queryId, query, settings, limits, serverInfo.serverRevision))
+                    .addListener(catchErrorListener);
+            // empty block terminates (absent) external tables
+            channel.writeAndFlush(DataBlock.EMPTY.retain())
+                    .addListener(catchErrorListener);
+        } else {
+            throw new IllegalStateException("Context expected to be in STATE_CONNECTED but got " + state);
+        }
+    }
+
+    @Override
+    public void onDataBlockReceived(DataBlock block) {
+        int state = STATE.get();
+        if (state != STATE_SERVER_INFO_RECEIVED) {
+            ReferenceCountUtil.release(block);
+            if (state == STATE_TERMINATED) {
+                return;
+            }
+            throw new IllegalStateException("Context expected to be in STATE_SERVER_INFO_RECEIVED but got " + state);
+        }
+
+        // header block and blocks filtered out on server side do not carry any rows
+        if (block.rows == 0) {
+            ReferenceCountUtil.release(block);
+            return;
+        }
+
+        execute(() -> {
+            if (STATE.get() == STATE_TERMINATED) {
+                ReferenceCountUtil.release(block);
+            } else {
+                queue.offer(block);
+                drain();
+            }
+        });
+    }
+
+    @Override
+    public void onServerExceptionCaught(ClickHouseServerException exception) {
+        terminate(exception);
+    }
+
+    @Override
+    public void onEndOfStream() {
+        execute(() -> {
+            endOfStream = true;
+            drain();
+        });
+    }
+
+    @Override
+    public void onPongReceived() {
+        throw new IllegalStateException("Pong should not be passed to ReceiveDataQueryContext");
+    }
+
+    @Override
+    public void onChannelExceptionCaught(Throwable cause) {
+        terminate(cause);
+    }
+
+    void request(long n) {
+        if (n <= 0) {
+            terminate(new IllegalArgumentException("§3.9 violated: positive request amount required"));
+            return;
+        }
+
+        execute(() -> {
+            requested += n;
+            if (requested < 0) {
+                // unbounded
+                requested = Long.MAX_VALUE;
+            }
+            drain();
+        });
+    }
+
+    void cancel() {
+        if (STATE.getAndSet(STATE_TERMINATED) != STATE_TERMINATED) {
+            releaseChannel(false);
+            execute(this::releaseQueue);
+        }
+    }
+
+    private void drain() {
+        while (requested > 0 && !queue.isEmpty() && STATE.get() != STATE_TERMINATED) {
+            requested--;
+            s.onNext(queue.poll());
+        }
+
+        if (queue.isEmpty() && endOfStream) {
+            if (STATE.getAndSet(STATE_TERMINATED) != STATE_TERMINATED) {
+                releaseChannel(true);
+                s.onComplete();
+            }
+        } else {
+            // stop reading socket until subscriber requests already decoded blocks
+            channel.config().setAutoRead(queue.size() < PREFETCH);
+        }
+    }
+
+    private void terminate(Throwable cause) {
+        if (STATE.getAndSet(STATE_TERMINATED) != STATE_TERMINATED) {
+            releaseChannel(false);
+            execute(this::releaseQueue);
+            s.onError(cause);
+        }
+    }
+
+    // broken channel is closed before release, so pool would not offer it again
+    private void releaseChannel(boolean reusable) {
+        if (!reusable) {
+            channel.close();
+        }
+        pool.release(channel);
+    }
+
+    private void releaseQueue() {
+        DataBlock b;
+        while ((b = queue.poll()) != null) {
+            ReferenceCountUtil.release(b);
+        }
+    }
+
+    private void execute(Runnable task) {
+        if (eventLoop.inEventLoop()) {
+            task.run();
+        } else {
+            eventLoop.execute(task);
+        }
+    }
+}
@@ -0,0 +1,453 @@
+/*
+ * Copyright 2017-2018 Mangelion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mangelion.achord;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static com.github.mangelion.achord.ClientMessage.writeStringBinary;
+
+/**
+ * Writes one row into columns of block, that is being built for insert.
+ * Values are written in order of columns of insert query and should match their types,
+ * e.g. for {@code INSERT INTO t(id, name, date)} every row is written like
+ * <pre>{@code
+ * (event, row) -> row.writeUInt64(event.id)
+ *         .writeString(event.name)
+ *         .writeDate(event.epochDay)
+ * }</pre>
+ * Values are written into column buffers as is, so nothing is allocated per row.
+ * Nullable column takes values of its nested type or {@link #writeNull()}.
+ * LowCardinality(String) column takes strings, only index of value in dictionary of block is kept per row.
+ * Array column takes whole primitive array with {@code writeArray}, or {@link #startArray(int)}
+ * followed by its elements, e.g. for nested arrays or nullable elements.
+ * Writer is valid only inside of binder invocation.
+ *
+ * @since 17.10.2026
+ */
+public final class RowWriter {
+    private static final int INITIAL_DEPTH = 4;
+    private ColumnWithTypeAndName[] columns;
+    private int column;
+    // arrays, whose elements are being written, and numbers of their elements that are not written yet
+    private ColumnWithTypeAndName[] arrays = new ColumnWithTypeAndName[INITIAL_DEPTH];
+    private int[] remaining = new int[INITIAL_DEPTH];
+    private int depth;
+
+    RowWriter() { /* restricted */ }
+
+    // binds writer to columns of block, that is being built
+    void target(ColumnWithTypeAndName[] columns) {
+        this.columns = columns;
+        this.column = 0;
+        this.depth = 0;
+    }
+
+    // checks that all columns were written and prepares writer for next row
+    void endRow() {
+        closeArrays();
+        if (column != columns.length || depth > 0) {
+            String message = "Row should contain " + columns.length + " values, but got " + column +
+                    (depth > 0 ? " with incomplete array" : "");
+            column = 0;
+            depth = 0;
+            throw new IllegalStateException(message);
+        }
+        column = 0;
+    }
+
+    public RowWriter writeInt8(byte value) {
+        next(ColumnType.INT_8).writeByte(value);
+        return this;
+    }
+
+    public RowWriter writeUInt8(int value) {
+        next(ColumnType.U_INT_8).writeByte(value);
+        return this;
+    }
+
+    public RowWriter writeInt16(short value) {
+        next(ColumnType.INT_16).writeShortLE(value);
+        return this;
+    }
+
+    /**
+     * @param value unsigned value, only lower 16 bits are written
+     * @return this writer
+     */
+    public RowWriter writeUInt16(int value) {
+        next(ColumnType.U_INT_16).writeShortLE(value);
+        return this;
+    }
+
+    public RowWriter writeInt32(int value) {
+        next(ColumnType.INT_32).writeIntLE(value);
+        return this;
+    }
+
+    /**
+     * @param value unsigned value, only lower 32 bits are written
+     * @return this writer
+     */
+    public RowWriter writeUInt32(long value) {
+        next(ColumnType.U_INT_32).writeIntLE((int) value);
+        return this;
+    }
+
+    public RowWriter writeInt64(long value) {
+        next(ColumnType.INT_64).writeLongLE(value);
+        return this;
+    }
+
+    /**
+     * @param value unsigned value, values above {@link Long#MAX_VALUE} are passed as negative longs
+     * @return this writer
+     */
+    public RowWriter writeUInt64(long value) {
+        next(ColumnType.U_INT_64).writeLongLE(value);
+        return this;
+    }
+
+    public RowWriter writeFloat32(float value) {
+        next(ColumnType.FLOAT_32).writeFloatLE(value);
+        return this;
+    }
+
+    public RowWriter writeFloat64(double value) {
+        next(ColumnType.FLOAT_64).writeDoubleLE(value);
+        return this;
+    }
+
+    /**
+     * Writes value of Decimal column of any precision without {@link java.math.BigDecimal}.
+     *
+     * @param unscaled value multiplied by 10^scale of column, e.g. 12345 for 123.45 of Decimal(9, 2)
+     * @return this writer
+     */
+    public RowWriter writeDecimal(long unscaled) {
+        ColumnWithTypeAndName c = next();
+        byte type = values(c).type;
+        if (!ColumnType.isDecimal(type)) {
+            throw new IllegalArgumentException("Column " + c.name + " has type " + c.typeName + ", but Decimal is written");
+        }
+        ColumnType.writeDecimal(type, unscaled, values(c, type));
+        return this;
+    }
+
+    public RowWriter writeString(CharSequence value) {
+        ColumnWithTypeAndName c = next();
+        if (c.type == ColumnType.LOW_CARDINALITY) {
+            c.data.writeIntLE(c.dictionary.index(value));
+        } else {
+            writeStringBinary(values(c, ColumnType.STRING), value);
+        }
+        return this;
+    }
+
+    /**
+     * @param epochDay days since 1970-01-01, e.g. {@link java.time.LocalDate#toEpochDay()}
+     * @return this writer
+     */
+    public RowWriter writeDate(int epochDay) {
+        next(ColumnType.DATE).writeShortLE(epochDay);
+        return this;
+    }
+
+    /**
+     * @param epochSecond seconds since 1970-01-01T00:00:00Z, e.g. {@link java.time.Instant#getEpochSecond()}
+     * @return this writer
+     */
+    public RowWriter writeDateTime(long epochSecond) {
+        next(ColumnType.DATETIME).writeIntLE((int) epochSecond);
+        return this;
+    }
+
+    /**
+     * Writes null into Nullable or LowCardinality(Nullable) column, it costs one bit until block is sent.
+     *
+     * @return this writer
+     */
+    public RowWriter writeNull() {
+        ColumnWithTypeAndName c = next();
+        if (ColumnType.isNullableDictionary(c)) {
+            // null is the first key of dictionary
+            c.data.writeIntLE(0);
+            return this;
+        }
+        if (c.type != ColumnType.NULLABLE) {
+            throw new IllegalArgumentException("Column " + c.name + " has type " + c.typeName + ", but null is written");
+        }
+        c.nulls.add(true);
+        ColumnType.writeDefault(c.nested);
+        return this;
+    }
+
+    /**
+     * Starts array of Array column, the next {@code size} values are its elements.
+     *
+     * @param size number of elements
+     * @return this writer
+     */
+    public RowWriter startArray(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Array size should not be negative, but got " + size);
+        }
+        ColumnWithTypeAndName c = array();
+        ColumnType.writeArraySize(c, size);
+        if (depth == arrays.length) {
+            arrays = Arrays.copyOf(arrays, depth << 1);
+            remaining = Arrays.copyOf(remaining, depth << 1);
+        }
+        arrays[depth] = c;
+        remaining[depth] = size;
+        depth++;
+        return this;
+    }
+
+    public RowWriter writeArray(byte[] values) {
+        return writeArray(values, values.length);
+    }
+
+    public RowWriter writeArray(short[] values) {
+        return writeArray(values, values.length);
+    }
+
+    /**
+     * @param values Int32, UInt32, Date (days) or DateTime (seconds) elements
+     * @return this writer
+     */
+    public RowWriter writeArray(int[] values) {
+        return writeArray(values, values.length);
+    }
+
+    /**
+     * @param values Int64, UInt64 or unscaled Decimal elements
+     * @return this writer
+     */
+    public RowWriter writeArray(long[] values) {
+        return writeArray(values, values.length);
+    }
+
+    public RowWriter writeArray(float[] values) {
+        return writeArray(values, values.length);
+    }
+
+    public RowWriter writeArray(double[] values) {
+        return writeArray(values, values.length);
+    }
+
+    public RowWriter writeArray(CharSequence[] values) {
+        return writeArray(values, values.length);
+    }
+
+    // elements of primitive array are copied at once
+    private RowWriter writeArray(Object values, int length) {
+        ColumnWithTypeAndName c = array();
+        ColumnWithTypeAndName elements = values(c.nested);
+        if (!ColumnType.accepts(elements.type, values)) {
+            throw new IllegalArgumentException("Column " + c.name + " has type " + c.typeName +
+                    ", but " + values.getClass().getSimpleName() + " is written");
+        }
+        ColumnType.writeArraySize(c, length);
+        if (c.nested.type == ColumnType.NULLABLE) {
+            c.nested.nulls.skip(length);
+        }
+        ColumnType.writeBulk(elements.type, values, null, length, elements.data);
+        return this;
+    }
+
+    private ColumnWithTypeAndName array() {
+        ColumnWithTypeAndName c = next();
+        if (c.type != ColumnType.ARRAY) {
+            throw new IllegalArgumentException("Column " + c.name + " has type " + c.typeName + ", but array is written");
+        }
+        return c;
+    }
+
+    // whole batch is copied column by column, returns number of written rows
+    int writeBatch(ColumnBatch batch) {
+        if (batch.columns != columns.length) {
+            throw new IllegalArgumentException("Batch should contain " + columns.length + " columns, but got " + batch.columns);
+        }
+
+        // nothing is written until all columns are checked, so block is not left with partially written batch
+        for (int i = 0; i < columns.length; i++) {
+            ColumnWithTypeAndName c = columns[i];
+            byte type = batch.types[i];
+            if (batch.nulls[i] != null && c.type != ColumnType.NULLABLE && !ColumnType.isNullableDictionary(c)) {
+                throw new IllegalArgumentException("Column " + c.name + " has type " + c.typeName + ", but nulls are written");
+            }
+            if (type == ColumnBatch.RAW) {
+                if (c.type == ColumnType.ARRAY || c.type == ColumnType.LOW_CARDINALITY) {
+                    throw new IllegalArgumentException("Column " + c.name + " has type " + c.typeName + ", but raw data is written");
+                }
+                int width = ColumnType.width(valuesType(c));
+                int remaining = ((ByteBuffer) batch.values[i]).remaining();
+                if (width > 0 && remaining != (long) batch.rows * width) {
+                    throw new IllegalArgumentException("Column " + c.name + " has type " + c.typeName + ", so " +
+                            (long) batch.rows * width + " bytes of raw data are expected, but got " + remaining);
+                }
+            }
+            if (type == ColumnType.ARRAY) {
+                if (c.type != ColumnType.ARRAY || !ColumnType.accepts(values(c.nested).type, batch.values[i])) {
+                    throw new IllegalArgumentException("Column " + c.name + " has type " + c.typeName +
+                            ", but array of " + batch.values[i].getClass().getSimpleName() + " is written");
+                }
+            } else if (type != ColumnBatch.RAW && type != valuesType(c)
+                    && !(ColumnType.isDecimal(type) && ColumnType.isDecimal(valuesType(c)))) {
+                throw new IllegalArgumentException("Column " + c.name + " has type " + c.typeName +
+                        ", but " + ColumnType.valueOf(type) + " is written");
+            }
+            if (type == ColumnType.DECIMAL_64 && valuesType(c) == ColumnType.DECIMAL_32) {
+                checkDecimal32(c, (long[]) batch.values[i], 0, batch.rows);
+            } else if (type == ColumnType.ARRAY && values(c.nested).type == ColumnType.DECIMAL_32) {
+                int[] offsets = batch.offsets[i];
+                checkDecimal32(c, (long[]) batch.values[i], offsets[0], offsets[batch.rows] - offsets[0]);
+            }
+        }
+
+        for (int i = 0; i < columns.length; i++) {
+            ColumnWithTypeAndName c = columns[i];
+            if (c.type == ColumnType.NULLABLE) {
+                if (batch.nulls[i] != null) {
+                    c.nulls.addAll(batch.nulls[i], batch.rows);
+                } else {
+                    c.nulls.skip(batch.rows);
+                }
+            }
+            if (batch.types[i] == ColumnType.ARRAY) {
+                writeArrays(c, batch.offsets[i], batch.values[i], batch.rows);
+                continue;
+            }
+            if (c.type == ColumnType.LOW_CARDINALITY) {
+                writeIndexes(c, batch.values[i], batch.dictionaries[i], batch.nulls[i], batch.rows);
+                continue;
+            }
+            ColumnWithTypeAndName values = values(c);
+            ColumnType.writeBulk(values.type, batch.values[i], batch.dictionaries[i], batch.rows, values.data);
+        }
+
+        return batch.rows;
+    }
+
+    // unscaled values are narrowed to Decimal32, so they are checked before any of them is written
+    private static void checkDecimal32(ColumnWithTypeAndName c, long[] values, int from, int count) {
+        for (int i = from; i < from + count; i++) {
+            if ((int) values[i] != values[i]) {
+                throw new ArithmeticException("Value " + values[i] + " of column " + c.name + " does not fit into " + c.typeName);
+            }
+        }
+    }
+
+    // offsets of rows are shifted to the end of already written elements, elements are copied at once
+    private static void writeArrays(ColumnWithTypeAndName c, int[] offsets, Object values, int rows) {
+        ByteBuf data = c.data;
+        long base = (data.isReadable() ? data.getLongLE(data.writerIndex() - 8) : 0) - offsets[0];
+        data.ensureWritable(rows * 8);
+        for (int row = 1; row <= rows; row++) {
+            data.writeLongLE(base + offsets[row]);
+        }
+
+        int count = offsets[rows] - offsets[0];
+        if (c.nested.type == ColumnType.NULLABLE) {
+            c.nested.nulls.skip(count);
+        }
+        ColumnWithTypeAndName elements = values(c.nested);
+        ColumnType.writeBulk(elements.type, values, null, offsets[0], count, elements.data);
+    }
+
+    // strings are replaced by their indexes in dictionary of block, value of batch dictionary is looked up once
+    private static void writeIndexes(ColumnWithTypeAndName c, Object values, CharSequence[] dictionary, long[] nulls, int rows) {
+        int[] indexes = null;
+        if (dictionary != null) {
+            indexes = new int[dictionary.length];
+            Arrays.fill(indexes, -1);
+        }
+        ByteBuf data = c.data;
+        data.ensureWritable(rows * 4);
+        for (int row = 0; row < rows; row++) {
+            int index;
+            if (nulls != null && row >>> 6 < nulls.length && (nulls[row >>> 6] & 1L << row) != 0) {
+                index = 0;
+            } else if (indexes != null) {
+                int code = ((int[]) values)[row];
+                index = indexes[code];
+                if (index < 0) {
+                    index = indexes[code] = c.dictionary.index(dictionary[code]);
+                }
+            } else {
+                index = c.dictionary.index(((CharSequence[]) values)[row]);
+            }
+            data.writeIntLE(index);
+        }
+    }
+
+    // untyped rows, every value is boxed
+    void writeObjects(Object[] row) {
+        for (int i = 0; i < row.length; i++) {
+            ColumnType.write(next(), row[i]);
+        }
+    }
+
+    private ByteBuf next(byte type) {
+        return values(next(), type);
+    }
+
+    // buffer of values of column, that should have given type
+    private static ByteBuf values(ColumnWithTypeAndName c, byte type) {
+        ColumnWithTypeAndName values = values(c);
+        if (values.type != type) {
+            throw new IllegalArgumentException("Column " + c.name + " has type " + c.typeName +
+                    ", but " + ColumnType.valueOf(type) + " is written");
+        }
+        if (c.type == ColumnType.NULLABLE) {
+            c.nulls.add(false);
+        }
+        return values.data;
+    }
+
+    // column, that keeps values of column
+    private static ColumnWithTypeAndName values(ColumnWithTypeAndName c) {
+        return c.type == ColumnType.NULLABLE ? c.nested : c;
+    }
+
+    // type of values, that column takes, LowCardinality column takes strings
+    private static byte valuesType(ColumnWithTypeAndName c) {
+        return c.type == ColumnType.LOW_CARDINALITY ? ColumnType.STRING : values(c).type;
+    }
+
+    // the next column of row, or nested column of array, whose elements are being written
+    private ColumnWithTypeAndName next() {
+        closeArrays();
+        if (depth > 0) {
+            remaining[depth - 1]--;
+            return arrays[depth - 1].nested;
+        }
+        if (column >= columns.length) {
+            throw new IllegalStateException("Row should contain " + columns.length + " values, but got more");
+        }
+        return columns[column++];
+    }
+
+    // arrays are closed lazily, since the last element of array may be array itself
+    private void closeArrays() {
+        while (depth > 0 && remaining[depth - 1] == 0) {
+            depth--;
+        }
+    }
+}
@@ -19,6 +19,7 @@ package com.github.mangelion.achord;
 import io.netty.channel.Channel;
 import io.netty.channel.EventLoop;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.pool.ChannelPool;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
 
@@ -34,15 +35,19 @@ final class SendDataQueryContext<T> implements QueryContext {
     private static final int STATE_CONNECTED = 1;
     private static final int STATE_SERVER_INFO_RECEIVED = 2;
     private static final int STATE_SAMPLE_BLOCK_RECEIVED = 3;
+    private static final int STATE_TERMINATED = 4;
     private final AuthData authData;
     private final String query;
     private final String queryId;
     private final Settings settings;
     private final Limits limits;
-    private final Flow.Publisher<T[]> source;
+    private final Flow.Publisher<T> source;
+    private final BlockWriter<? super T> blockWriter;
     private final Channel channel;
+    private final ChannelPool pool;
     private final Flow.Subscriber<? super Void> s;
     private final EventLoopGroup workersGroup;
+    private final ColumnBufferPool bufferPool;
     private final AtomicInteger STATE = new AtomicInteger(STATE_DISCONNECTED);
     private ClickHouseServerInfo serverInfo;
     private GenericFutureListener<Future<? super Void>> catchErrorListener = future -> {
@@ -53,17 +58,21 @@ final class SendDataQueryContext<T> implements QueryContext {
 
     SendDataQueryContext(AuthData authData, String queryId,
                          String query, Settings settings, Limits limits,
-                         Channel channel,
-                         Flow.Publisher<T[]> source, Flow.Subscriber<? super Void> s, EventLoopGroup workersGroup) {
+                         Channel channel, ChannelPool pool,
+                         Flow.Publisher<T> source, BlockWriter<? super T> blockWriter,
+                         Flow.Subscriber<? super Void> s, EventLoopGroup workersGroup, ColumnBufferPool bufferPool) {
         this.authData = authData;
         this.query = query;
         this.queryId = queryId;
         this.settings = settings;
         this.limits = limits;
         this.source = source;
+        this.blockWriter = blockWriter;
         this.channel = channel;
+        this.pool = pool;
         this.s = s;
         this.workersGroup = workersGroup;
+        this.bufferPool = bufferPool;
     }
 
     @Override
@@ -75,10 +84,16 @@ final class SendDataQueryContext<T> implements QueryContext {
     public void onChannelConnected() {
         int state;
         if ((state = STATE.compareAndExchange(STATE_DISCONNECTED, STATE_CONNECTED)) == STATE_DISCONNECTED) {
-            channel.writeAndFlush(new HelloMessage(authData))
-                    .addListener(catchErrorListener);
+            ClickHouseServerInfo serverInfo = channel.attr(ClickHouseServerInfo.CH_SERVER_INFO_ATTRIBUTE).get();
+            if (serverInfo != null) {
+                // pooled channel is already handshaken
+                onClickHouseServerInfoReceived(serverInfo);
+            } else {
+                channel.writeAndFlush(new HelloMessage(authData))
+                        .addListener(catchErrorListener);
+            }
         } else {
-            throw new IllegalStateException("Context expected to be in STATE_DISCONNEC8TED but got " + state);
+            throw new IllegalStateException("Context expected to be in STATE_DISCONNECTED but got " + state);
         }
     }
 
@@ -103,39 +118,72 @@ final class SendDataQueryContext<T> implements QueryContext {
         if ((state = STATE.compareAndExchange(STATE_SERVER_INFO_RECEIVED, STATE_SAMPLE_BLOCK_RECEIVED)) == STATE_SERVER_INFO_RECEIVED) {
             // eventLoop for executing all onNext/onSubscribe operations
             EventLoop eventLoop = workersGroup.next();
-            ObjectsToBlockProcessor<T> processor = new ObjectsToBlockProcessor<>(block, eventLoop, channel.alloc());
-            DataBlockSender blockSender = new DataBlockSender(eventLoop);
+            ObjectsToBlockProcessor<T> processor;
+            try {
+                processor = new ObjectsToBlockProcessor<>(block, eventLoop, channel.alloc(), blockWriter, settings, bufferPool);
+            } catch (IllegalArgumentException e) {
+                // columns of insert can not be written, so nothing is requested from source
+                block.release();
+                terminate(e);
+                return;
+            }
+            DataBlockSender blockSender = new DataBlockSender(eventLoop, settings.getInsertWindowBytes());
 
-            if (channel.pipeline().get(EmptyResponsePublisher.BLOCK_COMPRESSOR) != null) {
-                channel.pipeline().addBefore(EmptyResponsePublisher.BLOCK_COMPRESSOR, "reactiveBlockSender", blockSender);
+            if (channel.pipeline().get(ClickHouseClient.BLOCK_COMPRESSOR) != null) {
+                channel.pipeline().addBefore(ClickHouseClient.BLOCK_COMPRESSOR, ClickHouseClient.BLOCK_SENDER, blockSender);
             } else {
-                channel.pipeline().addFirst(blockSender);
+                channel.pipeline().addFirst(ClickHouseClient.BLOCK_SENDER, blockSender);
             }
             eventLoop.execute(() -> {
                 source.subscribe(processor);
                 processor.subscribe(blockSender);
             });
         } else {
+            block.release();
             throw new IllegalStateException("Context expected to be in STATE_SERVER_INFO_RECEIVED but got " + state);
         }
     }
 
     @Override
     public void onServerExceptionCaught(ClickHouseServerException exception) {
-        s.onError(exception);
+        terminate(exception);
     }
 
+    // server confirms that all data is inserted, so channel can be reused by next query
     @Override
     public void onEndOfStream() {
-        throw new IllegalStateException("End of stream should not be passed to SendDataQueryContext");
+        int state;
+        if ((state = STATE.compareAndExchange(STATE_SAMPLE_BLOCK_RECEIVED, STATE_TERMINATED)) == STATE_SAMPLE_BLOCK_RECEIVED) {
+            pool.release(channel);
+            s.onComplete();
+        } else if (state != STATE_TERMINATED) {
+            throw new IllegalStateException("Context expected to be in STATE_SAMPLE_BLOCK_RECEIVED but got " + state);
+        }
+    }
+
+    @Override
+    public void onPongReceived() {
+        throw new IllegalStateException("Pong should not be passed to SendDataQueryContext");
     }
 
     @Override
     public void onChannelExceptionCaught(Throwable cause) {
-        s.onError(cause);
+        terminate(cause);
+    }
+
+    void cancel() {
+        if (STATE.getAndSet(STATE_TERMINATED) != STATE_TERMINATED) {
+            channel.close();
+            pool.release(channel);
+        }
     }
 
-    void completed() {
-        s.onComplete();
+    private void terminate(Throwable cause) {
+        if (STATE.getAndSet(STATE_TERMINATED) != STATE_TERMINATED) {
+            // broken channel is closed before release, so pool would not offer it again
+            channel.close();
+            pool.release(channel);
+            s.onError(cause);
+        }
     }
 }
@@ -24,6 +24,8 @@ import io.netty.util.ReferenceCountUtil;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 
+import static com.github.mangelion.achord.ClickHouseClient.COMPATIBLE_CLIENT_REVISION;
+
 /**
  * @author Dmitriy Poluyanov
  * @since 18/02/2018
@@ -33,7 +35,6 @@ final class SendQueryMessage extends ClientMessage {
     private static final int TCP_INTERFACE = 0x01;
     private static final String OS_USERNAME = System.getProperty("user.name");
     private static final String CLIENT_HOSTNAME;
-    private static final int COMPATIBLE_CLIENT_REVISION = 54327;
     private final static ByteBuf STATIC_MSG_ID_BUF;
     private final static ByteBuf STATIC_CLIENT_INFO_BUF;
     private static final int SEND_QUERY_MSG_ID = 0x01;
@@ -107,6 +108,9 @@ final class SendQueryMessage extends ClientMessage {
         if (serverRevision >= ServerRevisions.DBMS_MIN_REVISION_WITH_QUOTA_KEY_IN_CLIENT_INFO) {
             writeStringBinary(queryBuf, ""); // todo quota key
         }
+        if (serverRevision >= ServerRevisions.DBMS_MIN_REVISION_WITH_VERSION_PATCH) {
+            writeVarUInt(queryBuf, 0); // version patch
+        }
 
         settings.write(queryBuf);
         limits.write(queryBuf);
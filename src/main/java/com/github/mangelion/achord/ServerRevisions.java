@@ -25,4 +25,7 @@ final class ServerRevisions {
     final static int DBMS_MIN_REVISION_WITH_SERVER_TIMEZONE = 54058;
     final static int DBMS_MIN_REVISION_WITH_QUOTA_KEY_IN_CLIENT_INFO = 54060;
     final static int DBMS_MIN_REVISION_WITH_TIME_ZONE_PARAMETER_IN_DATETIME_DATA_TYPE = 54311;
+    final static int DBMS_MIN_REVISION_WITH_SERVER_DISPLAY_NAME = 54372;
+    final static int DBMS_MIN_REVISION_WITH_VERSION_PATCH = 54401;
+    final static int DBMS_MIN_REVISION_WITH_LOW_CARDINALITY_TYPE = 54405;
 }
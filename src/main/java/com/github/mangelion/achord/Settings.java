@@ -32,8 +32,26 @@ import static com.github.mangelion.achord.ClientMessage.writeVarUInt;
 final class Settings {
     static final String NETWORK_COMPRESSION_METHOD = "network_compression_method";
     static final String NETWORK_ZSTD_COMPRESSION_LEVEL = "network_zstd_compression_level";
+    static final String MAX_COMPRESS_BLOCK_SIZE = "max_compress_block_size";
+
+    static final int DEFAULT_LZ4HC_COMPRESSION_LEVEL = 9;
+    static final int DEFAULT_MAX_COMPRESS_BLOCK_SIZE = 1024 * 1024;
+    static final int DEFAULT_INSERT_BLOCK_ROWS = 1024 * 1024;
+    static final long DEFAULT_INSERT_BLOCK_BYTES = 256L * 1024 * 1024;
+    static final long DEFAULT_INSERT_WINDOW_BYTES = 128L * 1024 * 1024;
 
     private final Map<String, Setting> settings = new HashMap<>();
+    // server does not know about it, so it is kept apart from transferred settings
+    private int lz4HcCompressionLevel = DEFAULT_LZ4HC_COMPRESSION_LEVEL;
+    // client selects compression method for every frame, server keeps network compression method
+    private boolean adaptiveCompression;
+    // thresholds of block building, block is sent when any of them is exceeded
+    private int insertBlockRows = DEFAULT_INSERT_BLOCK_ROWS;
+    private long insertBlockBytes = DEFAULT_INSERT_BLOCK_BYTES;
+    // 0 means that block is not sent until it is filled
+    private long insertBlockLingerNanos;
+    // upper bound of bytes of blocks, that are built or sent at the same time by one insert
+    private long insertWindowBytes = DEFAULT_INSERT_WINDOW_BYTES;
 
     void write(ByteBuf buf) {
         for (Map.Entry<String, Setting> setting : settings.entrySet()) {
@@ -57,6 +75,72 @@ final class Settings {
                 .value;
     }
 
+    int getMaxCompressBlockSize() {
+        return (int) ((SettingInt64) settings.getOrDefault(MAX_COMPRESS_BLOCK_SIZE,
+                new SettingInt64(DEFAULT_MAX_COMPRESS_BLOCK_SIZE)))
+                .value;
+    }
+
+    int getLz4HcCompressionLevel() {
+        return lz4HcCompressionLevel;
+    }
+
+    void setLz4HcCompressionLevel(int lz4HcCompressionLevel) {
+        this.lz4HcCompressionLevel = lz4HcCompressionLevel;
+    }
+
+    boolean isAdaptiveCompression() {
+        return adaptiveCompression;
+    }
+
+    void setAdaptiveCompression(boolean adaptiveCompression) {
+        this.adaptiveCompression = adaptiveCompression;
+    }
+
+    int getInsertBlockRows() {
+        return insertBlockRows;
+    }
+
+    void setInsertBlockRows(int insertBlockRows) {
+        this.insertBlockRows = insertBlockRows;
+    }
+
+    long getInsertBlockBytes() {
+        return insertBlockBytes;
+    }
+
+    void setInsertBlockBytes(long insertBlockBytes) {
+        this.insertBlockBytes = insertBlockBytes;
+    }
+
+    long getInsertBlockLingerNanos() {
+        return insertBlockLingerNanos;
+    }
+
+    void setInsertBlockLingerNanos(long insertBlockLingerNanos) {
+        this.insertBlockLingerNanos = insertBlockLingerNanos;
+    }
+
+    long getInsertWindowBytes() {
+        return insertWindowBytes;
+    }
+
+    void setInsertWindowBytes(long insertWindowBytes) {
+        this.insertWindowBytes = insertWindowBytes;
+    }
+
+    // level that is applied by client for blocks compressed with network compression method
+    long getNetworkCompressionLevel() {
+        switch (getNetworkCompressionMethod()) {
+            case LZ4HC:
+                return getLz4HcCompressionLevel();
+            case ZSTD:
+                return getNetworkZstdCompressionLevel();
+            default:
+                return 0;
+        }
+    }
+
     void put(String key, Setting setting) {
         settings.put(key, setting);
     }
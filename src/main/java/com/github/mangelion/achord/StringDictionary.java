@@ -0,0 +1,157 @@
+/*
+ * Copyright 2017-2018 Mangelion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.mangelion.achord;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+import java.util.Arrays;
+
+import static com.github.mangelion.achord.ClientMessage.writeStringBinary;
+
+/**
+ * Distinct values of LowCardinality(String) column, that is being built, rows keep only indexes of them.
+ * Values are looked up by open addressing table of indexes with linear probing,
+ * so known value is found without allocation for any {@link CharSequence}.
+ *
+ * @since 17.10.2026
+ */
+final class StringDictionary {
+    private static final int INITIAL_CAPACITY = 64;
+    private final boolean nullable;
+    // index + 1 of value, 0 for empty slot
+    private int[] table = new int[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY >>> 1];
+    private String[] keys = new String[INITIAL_CAPACITY >>> 1];
+    private int size;
+    // approximate size of serialized keys
+    private long bytes;
+
+    /**
+     * @param nullable if true, index 0 is reserved for null, as LowCardinality(Nullable(String)) requires
+     */
+    StringDictionary(boolean nullable) {
+        this.nullable = nullable;
+        // placeholder is not present in table, so empty string gets its own index
+        if (nullable) {
+            append("", 0);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return index of value, that is added if it is met first time
+     */
+    int index(CharSequence value) {
+        int hash = hash(value);
+        int mask = table.length - 1;
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            int i = table[slot] - 1;
+            if (i < 0) {
+                i = append(value.toString(), hash);
+                table[slot] = i + 1;
+                if (size << 1 > table.length) {
+                    rehash();
+                }
+                return i;
+            }
+            if (hashes[i] == hash && contentEquals(keys[i], value)) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * Adds values of other dictionary.
+     *
+     * @return new index of every value of other dictionary
+     */
+    int[] addAll(StringDictionary other) {
+        int[] indexes = new int[other.size];
+        // null placeholder of nullable dictionary stays at 0
+        for (int i = other.nullable ? 1 : 0; i < other.size; i++) {
+            indexes[i] = index(other.keys[i]);
+        }
+        return indexes;
+    }
+
+    // keys in Native String format, one after another
+    void writeTo(ByteBuf out) {
+        for (int i = 0; i < size; i++) {
+            writeStringBinary(out, keys[i]);
+        }
+    }
+
+    private int append(String value, int hash) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size << 1);
+            hashes = Arrays.copyOf(hashes, size << 1);
+        }
+        keys[size] = value;
+        hashes[size] = hash;
+        bytes += ByteBufUtil.utf8Bytes(value) + 1;
+        return size++;
+    }
+
+    private void rehash() {
+        int[] t = new int[table.length << 1];
+        int mask = t.length - 1;
+        for (int slot = 0; slot < table.length; slot++) {
+            int i = table[slot] - 1;
+            if (i >= 0) {
+                int s = mix(hashes[i]) & mask;
+                while (t[s] != 0) {
+                    s = (s + 1) & mask;
+                }
+                t[s] = i + 1;
+            }
+        }
+        table = t;
+    }
+
+    // the same as String#hashCode, that is cached by strings
+    private static int hash(CharSequence value) {
+        if (value instanceof String) {
+            return value.hashCode();
+        }
+        int h = 0;
+        for (int i = 0; i < value.length(); i++) {
+            h = 31 * h + value.charAt(i);
+        }
+        return h;
+    }
+
+    // spreads hash, so similar strings do not take adjacent slots
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean contentEquals(String key, CharSequence value) {
+        if (value instanceof String) {
+            return key.equals(value);
+        }
+        return key.contentEquals(value);
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2017-2018 Mangelion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mangelion.achord;
+
+/**
+ * Network transports, that client can use for connections to server.
+ * Native transports are used only when their Netty libraries are present in classpath and supported by platform.
+ *
+ * @since 17.10.2026
+ */
+public enum Transport {
+    /**
+     * Linux epoll, requires {@code netty-transport-native-epoll}
+     */
+    EPOLL,
+    /**
+     * Linux io_uring, requires {@code netty-incubator-transport-native-io_uring} and kernel 5.9+
+     */
+    IO_URING,
+    /**
+     * BSD/macOS kqueue, requires {@code netty-transport-native-kqueue}
+     */
+    KQUEUE,
+    /**
+     * Java NIO, always available
+     */
+    NIO
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017-2018 Mangelion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.mangelion.achord;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDecompressCtx;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Native ZSTD contexts are expensive to create, so they are created once per compression thread and reused for every block.
+ * Separate class also keeps zstd-jni from loading until ZSTD method is really used.
+ *
+ * @since 17.10.2026
+ */
+final class ZstdCodec implements Compressor, Decompressor {
+    static final ZstdCodec ZSTD_CODEC = new ZstdCodec();
+    private static final FastThreadLocal<ZstdCompressCtx> COMPRESS_CTX = new FastThreadLocal<>() {
+        @Override
+        protected ZstdCompressCtx initialValue() {
+            return new ZstdCompressCtx();
+        }
+
+        @Override
+        protected void onRemoval(ZstdCompressCtx ctx) {
+            ctx.close();
+        }
+    };
+    private static final FastThreadLocal<ZstdDecompressCtx> DECOMPRESS_CTX = new FastThreadLocal<>() {
+        @Override
+        protected ZstdDecompressCtx initialValue() {
+            return new ZstdDecompressCtx();
+        }
+
+        @Override
+        protected void onRemoval(ZstdDecompressCtx ctx) {
+            ctx.close();
+        }
+    };
+
+    private ZstdCodec() { /* restricted */ }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return (int) Zstd.compressBound(length);
+    }
+
+    // both buffers should be direct
+    @Override
+    public int compress(ByteBuf src, int srcIndex, int srcLength, ByteBuf dst, int dstIndex, int maxDstLength, long level) {
+        ZstdCompressCtx ctx = COMPRESS_CTX.get().setLevel((int) level);
+        // zstd addresses memory from the start of nio buffer, so position is passed as offset
+        ByteBuffer dstNio = dst.internalNioBuffer(dstIndex, maxDstLength);
+        ByteBuffer srcNio = src.internalNioBuffer(srcIndex, srcLength);
+
+        return ctx.compressDirectByteBuffer(dstNio, dstNio.position(), maxDstLength, srcNio, srcNio.position(), srcLength);
+    }
+
+    // destination should be direct, source is copied into direct memory if it is not
+    @Override
+    public void decompress(ByteBuf src, int srcIndex, int srcLength, ByteBuf dst, int dstIndex, int dstLength) {
+        ByteBuf directSrc = src;
+        try {
+            if (!src.isDirect()) {
+                directSrc = src.alloc().directBuffer(srcLength).writeBytes(src, srcIndex, srcLength);
+                srcIndex = 0;
+            }
+
+            ZstdDecompressCtx ctx = DECOMPRESS_CTX.get();
+            ByteBuffer dstNio = dst.internalNioBuffer(dstIndex, dstLength);
+            ByteBuffer srcNio = directSrc.internalNioBuffer(srcIndex, srcLength);
+
+            if (ctx.decompressDirectByteBuffer(dstNio, dstNio.position(), dstLength, srcNio, srcNio.position(), srcLength) != dstLength) {
+                throw new RuntimeException("Cannot decompress with ZSTD");
+            }
+        } finally {
+            if (directSrc != src) {
+                ReferenceCountUtil.release(directSrc);
+            }
+        }
+    }
+}
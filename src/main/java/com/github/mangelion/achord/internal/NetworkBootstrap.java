@@ -16,8 +16,10 @@
 
 package com.github.mangelion.achord.internal;
 
+import com.github.mangelion.achord.Transport;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
 
 import java.lang.invoke.MethodHandle;
@@ -25,53 +27,106 @@ import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
 
 /**
+ * Native transports are optional dependencies, so their classes are resolved reflectively.
+ *
  * @author Dmitriy Poluyanov
  * @since 23.03.2018
  */
 public final class NetworkBootstrap {
-    private static final MethodHandle epoolGroupCreator;
-    private static final MethodHandle kqueueGroupCreator;
+    private static final String EPOLL_SOCKET_CHANNEL = "io.netty.channel.epoll.EpollSocketChannel";
+    private static final String EPOLL_CHANNEL_OPTION = "io.netty.channel.epoll.EpollChannelOption";
+    private static final String EPOLL_MODE = "io.netty.channel.epoll.EpollMode";
+    private static final String IO_URING_SOCKET_CHANNEL = "io.netty.incubator.channel.uring.IOUringSocketChannel";
+    private static final String KQUEUE_SOCKET_CHANNEL = "io.netty.channel.kqueue.KQueueSocketChannel";
+
+    private static final MethodHandle epollGroupCreator = groupCreator("io.netty.channel.epoll.EpollEventLoopGroup");
+    private static final MethodHandle ioUringGroupCreator = groupCreator("io.netty.incubator.channel.uring.IOUringEventLoopGroup");
+    private static final MethodHandle kqueueGroupCreator = groupCreator("io.netty.channel.kqueue.KQueueEventLoopGroup");
+
+    private NetworkBootstrap() { /* restricted */ }
 
-    static {
-        MethodHandle _epoolGroupCreator, _kqueueGroupCreator;
-        MethodType vType = MethodType.methodType(void.class);
+    private static MethodHandle groupCreator(String className) {
         try {
-            _epoolGroupCreator = MethodHandles.publicLookup()
-                    .findConstructor(Class.forName("io.netty.channel.epool.EpollEventLoopGroup"), vType);
+            return MethodHandles.publicLookup()
+                    .findConstructor(Class.forName(className), MethodType.methodType(void.class, int.class));
         } catch (ReflectiveOperationException e) {
-            _epoolGroupCreator = null;
+            return null;
         }
+    }
 
-        epoolGroupCreator = _epoolGroupCreator;
-
+    /**
+     * Configures bootstrap with group and channel of native transport, if it is available on this platform.
+     *
+     * @param b         bootstrap
+     * @param transport native transport, {@link Transport#NIO} is never configured here
+     * @param nThreads  number of threads of created group, zero means default for transport
+     * @return {@code true} if transport is available and bootstrap was configured
+     */
+    public static boolean tryNative(Bootstrap b, Transport transport, int nThreads) {
         try {
-            _kqueueGroupCreator = MethodHandles.publicLookup()
-                    .findConstructor(Class.forName("io.netty.channel.kqueue.KQueueEventLoopGroup"), vType);
-        } catch (ReflectiveOperationException e) {
-            _kqueueGroupCreator = null;
+            switch (transport) {
+                case EPOLL:
+                    return PlatformFeatures.hasEpoll() && tryNative(b, epollGroupCreator, EPOLL_SOCKET_CHANNEL, nThreads);
+                case IO_URING:
+                    return PlatformFeatures.hasIOUring() && tryNative(b, ioUringGroupCreator, IO_URING_SOCKET_CHANNEL, nThreads);
+                case KQUEUE:
+                    return PlatformFeatures.hasKQueue() && tryNative(b, kqueueGroupCreator, KQUEUE_SOCKET_CHANNEL, nThreads);
+                default:
+                    return false;
+            }
+        } catch (Throwable e) {
+            return false;
         }
+    }
 
-        kqueueGroupCreator = _kqueueGroupCreator;
+    @SuppressWarnings("unchecked")
+    private static boolean tryNative(Bootstrap b, MethodHandle groupCreator, String channelClass, int nThreads) throws Throwable {
+        if (groupCreator == null) {
+            return false;
+        }
+
+        Class<? extends Channel> channel = (Class<? extends Channel>) Class.forName(channelClass);
+        b.group((EventLoopGroup) groupCreator.invoke(nThreads))
+                .channel(channel);
+        return true;
     }
 
+    public static boolean isEpoll(Class<? extends Channel> channelClass) {
+        return EPOLL_SOCKET_CHANNEL.equals(channelClass.getName());
+    }
 
-    private NetworkBootstrap() { /* restricted */ }
+    /**
+     * Applies epoll specific options, bootstrap should be configured with epoll channel.
+     * Options, that are not known to Netty in classpath, can be used only with their default values.
+     *
+     * @param b              bootstrap
+     * @param quickAck       enables {@code TCP_QUICKACK}, so acks of server responses are not delayed
+     * @param busyPollMicros {@code SO_BUSY_POLL} timeout in microseconds, zero disables busy polling
+     * @param edgeTriggered  edge-triggered mode if {@code true}, level-triggered otherwise
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static void epollOptions(Bootstrap b, boolean quickAck, int busyPollMicros, boolean edgeTriggered) {
+        try {
+            Class<?> options = Class.forName(EPOLL_CHANNEL_OPTION);
+            Class<? extends Enum> mode = (Class<? extends Enum>) Class.forName(EPOLL_MODE);
 
-    public static boolean tryNative(Bootstrap b) {
+            option(b, options, "TCP_QUICKACK", quickAck, !quickAck);
+            option(b, options, "SO_BUSY_POLL", busyPollMicros, busyPollMicros == 0);
+            option(b, options, "EPOLL_MODE", Enum.valueOf(mode, edgeTriggered ? "EDGE_TRIGGERED" : "LEVEL_TRIGGERED"), edgeTriggered);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Epoll transport is not available", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void option(Bootstrap b, Class<?> options, String name, Object value, boolean isDefault)
+            throws IllegalAccessException {
         try {
-            if (PlatformFeatures.hasEpool() && epoolGroupCreator != null) {
-                b.group((EventLoopGroup) epoolGroupCreator.invoke())
-                        .channel((Class<? extends Channel>) Class.forName("io.netty.channel.epoll.EpollSocketChannel"));
-                return true;
-            } else if (PlatformFeatures.hasKQueue() && kqueueGroupCreator != null) {
-                b.group((EventLoopGroup) kqueueGroupCreator.invoke())
-                        .channel((Class<? extends Channel>) Class.forName("io.netty.channel.kqueue.KQueueSocketChannel"));
-                return true;
-            } else {
-                return false;
+            b.option((ChannelOption<Object>) options.getField(name).get(null), value);
+        } catch (NoSuchFieldException e) {
+            if (!isDefault) {
+                throw new IllegalStateException("Epoll option " + name + " is not supported by Netty in classpath", e);
             }
-        } catch (Throwable e) {
-            return false;
         }
     }
 }
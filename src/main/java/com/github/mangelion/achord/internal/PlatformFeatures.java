@@ -25,37 +25,29 @@ import java.lang.invoke.MethodType;
  * @since 23.03.2018
  */
 final class PlatformFeatures {
-    private static final boolean HAS_EPOOL;
-    private static final boolean HAS_KQUEUE;
+    private static final boolean HAS_EPOLL = isAvailable("io.netty.channel.epoll.Epoll");
+    private static final boolean HAS_IO_URING = isAvailable("io.netty.incubator.channel.uring.IOUring");
+    private static final boolean HAS_KQUEUE = isAvailable("io.netty.channel.kqueue.KQueue");
 
-    static {
-        MethodType boolType = MethodType.methodType(boolean.class);
-        boolean hasEpool;
-        try {
-            MethodHandle epoolAvailable = MethodHandles.publicLookup()
-                    .findStatic(Class.forName("io.netty.channel.epoll.Epool"), "isAvailable", boolType);
-            hasEpool = (boolean) epoolAvailable.invoke();
-        } catch (Throwable e) {
-            hasEpool = false;
-        }
+    private PlatformFeatures() { /* restricted */ }
 
-        HAS_EPOOL = hasEpool;
-
-        boolean hasKQueue;
+    // every native transport has class with static isAvailable(), that checks whether native library is loaded
+    private static boolean isAvailable(String className) {
         try {
-            MethodHandle kqueueAvailable = MethodHandles.publicLookup()
-                    .findStatic(Class.forName("io.netty.channel.kqueue.KQueue"), "isAvailable", boolType);
-            hasKQueue = (boolean) kqueueAvailable.invoke();
+            MethodHandle available = MethodHandles.publicLookup()
+                    .findStatic(Class.forName(className), "isAvailable", MethodType.methodType(boolean.class));
+            return (boolean) available.invoke();
         } catch (Throwable e) {
-            hasKQueue = false;
+            return false;
         }
-
-        HAS_KQUEUE = hasKQueue;
     }
 
+    static boolean hasEpoll() {
+        return HAS_EPOLL;
+    }
 
-    static boolean hasEpool() {
-        return HAS_EPOOL;
+    static boolean hasIOUring() {
+        return HAS_IO_URING;
     }
 
     static boolean hasKQueue() {
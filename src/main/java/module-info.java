@@ -1,9 +1,10 @@
 module achord {
     requires io.netty.codec;
-    requires io.netty.common;
-    requires io.netty.buffer;
-    requires io.netty.transport;
+    requires transitive io.netty.common;
+    requires transitive io.netty.buffer;
+    requires transitive io.netty.transport;
     requires lz4.java;
+    requires com.github.luben.zstd_jni;
     requires jctools.core;
 
     exports com.github.mangelion.achord;
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017-2018 Mangelion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.mangelion.achord;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+final class AdaptiveCompressionTest {
+    private static final int LZ4 = 0;
+    private static final int LZ4HC = 1;
+    private static final int ZSTD = 2;
+    private static final int FRAME = 1000;
+
+    // lz4 is the fastest, zstd compresses the best
+    private static AdaptiveCompression measured() {
+        AdaptiveCompression adaptive = new AdaptiveCompression(9, 1);
+        assertEquals(LZ4, adaptive.select(0));
+        adaptive.onCompressed(LZ4, FRAME, 500, 1_000);
+        assertEquals(LZ4HC, adaptive.select(0));
+        adaptive.onCompressed(LZ4HC, FRAME, 400, 10_000);
+        assertEquals(ZSTD, adaptive.select(0));
+        adaptive.onCompressed(ZSTD, FRAME, 300, 5_000);
+        return adaptive;
+    }
+
+    @Test
+    void selectsFastestMethodWhenNetworkIsNotBottleneck() {
+        AdaptiveCompression adaptive = measured();
+
+        assertEquals(LZ4, adaptive.select(0));
+        assertEquals(CompressionMethod.LZ4, adaptive.method(LZ4));
+    }
+
+    @Test
+    void selectsBestRatioWhenNetworkIsSlow() {
+        AdaptiveCompression adaptive = measured();
+        // 100 ns per byte: cost of lz4 is 50, lz4hc is 40 and zstd is 30 ns per uncompressed byte
+        adaptive.onWritten(FRAME, 1, 1_000_000);
+        adaptive.onWritten(FRAME, 1, 1_100_000);
+
+        assertEquals(ZSTD, adaptive.select(1));
+        assertEquals(1, adaptive.level(ZSTD));
+    }
+
+    @Test
+    void selectsCheaperCompressionWhenItIsBottleneck() {
+        AdaptiveCompression adaptive = measured();
+        // 20 ns per byte: cost of lz4 is 10, lz4hc is 10 and zstd is 6 ns per uncompressed byte
+        adaptive.onWritten(FRAME, 1, 1_000_000);
+        adaptive.onWritten(FRAME, 1, 1_020_000);
+        assertEquals(ZSTD, adaptive.select(1));
+
+        // zstd slows down to 20 ns per byte, so lz4 becomes the cheapest
+        for (int i = 0; i < 20; i++) {
+            adaptive.onCompressed(ZSTD, FRAME, 300, 20_000);
+        }
+        assertEquals(LZ4, adaptive.select(1));
+    }
+
+    @Test
+    void forgetsSlowNetworkWhenOutboundBufferIsEmpty() {
+        AdaptiveCompression adaptive = measured();
+        adaptive.onWritten(FRAME, 1, 1_000_000);
+        adaptive.onWritten(FRAME, 1, 1_100_000);
+        assertEquals(ZSTD, adaptive.select(1));
+
+        int selected = ZSTD;
+        for (int i = 0; i < 10; i++) {
+            selected = adaptive.select(0);
+        }
+        assertEquals(LZ4, selected);
+    }
+
+    @Test
+    void probesEveryMethodInTurn() {
+        AdaptiveCompression adaptive = measured();
+        int[] probes = new int[3];
+
+        for (int n = 3; n < 32 * 4; n++) {
+            int candidate = adaptive.select(0);
+            if (n % 32 == 0) {
+                probes[candidate]++;
+            } else {
+                assertEquals(LZ4, candidate);
+            }
+        }
+
+        assertEquals(1, probes[LZ4]);
+        assertEquals(1, probes[LZ4HC]);
+        assertEquals(1, probes[ZSTD]);
+    }
+
+    @Test
+    void ignoresWritesWithoutPressure() {
+        AdaptiveCompression adaptive = measured();
+        adaptive.onWritten(FRAME, 0, 1_000_000);
+        adaptive.onWritten(FRAME, 0, 100_000_000);
+
+        assertEquals(LZ4, adaptive.select(1));
+    }
+}
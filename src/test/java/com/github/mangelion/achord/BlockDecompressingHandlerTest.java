@@ -0,0 +1,297 @@
+/*
+ * Copyright 2017-2018 Mangelion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.mangelion.achord;
+
+import io.netty.buffer.AbstractByteBufAllocator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DecoderException;
+import io.netty.util.concurrent.EventExecutor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+final class BlockDecompressingHandlerTest {
+    private final DefaultEventLoopGroup compressionGroup = new DefaultEventLoopGroup(2);
+    private final CountDownLatch latch = new CountDownLatch(1);
+    // buffers of decompressed blocks
+    private final List<ByteBuf> buffers = new ArrayList<>();
+    private EventExecutor blocked;
+    private EventExecutor free;
+    private EmbeddedChannel channel;
+
+    @BeforeEach
+    void setUp() {
+        // group takes its executors in turn, so frames are decompressed by blocked and free one alternately
+        blocked = compressionGroup.next();
+        free = compressionGroup.next();
+        blocked.execute(() -> {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        channel = new EmbeddedChannel(new BlockDecompressingHandler(compressionGroup));
+        channel.config().setAllocator(new TrackingAllocator());
+    }
+
+    @AfterEach
+    void tearDown() {
+        latch.countDown();
+        channel.finishAndReleaseAll();
+        compressionGroup.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void passesBlocksInOrderOfReceiving() {
+        channel.writeInbound(frame(1));
+        channel.writeInbound(frame(2));
+        ByteBuf message = Unpooled.buffer();
+        channel.writeInbound(message);
+
+        // the second block is ready first, but it waits for the first one
+        awaitDecompression();
+        assertNull(channel.readInbound());
+
+        latch.countDown();
+        awaitDecompression();
+        assertEquals(1, readValue());
+        assertEquals(2, readValue());
+        assertSame(message, channel.readInbound());
+        message.release();
+
+        assertReleased();
+    }
+
+    @Test
+    void failsOnFrameInMiddleOfQueue() {
+        channel.writeInbound(frame(1));
+        // unknown compression method
+        CompressedBlock corrupted = new CompressedBlock(0x42, Unpooled.buffer().writeByte(0), 1, false);
+        channel.writeInbound(corrupted);
+        CompressedBlock last = frame(3);
+        channel.writeInbound(last);
+        ByteBuf message = Unpooled.buffer();
+        channel.writeInbound(message);
+
+        // failed frame waits for the first block
+        awaitDecompression();
+        assertNull(channel.readInbound());
+        channel.checkException();
+
+        latch.countDown();
+        awaitDecompression();
+        assertEquals(1, readValue());
+        assertThrows(DecoderException.class, channel::checkException);
+        assertNull(channel.readInbound());
+
+        // block after failed one is released as soon as it is decompressed
+        awaitDecompression();
+        assertEquals(0, corrupted.refCnt());
+        assertEquals(0, last.refCnt());
+        assertEquals(0, message.refCnt());
+        assertReleased();
+    }
+
+    @Test
+    void joinsFramesOfOneBlock() {
+        ByteBuf raw = block(0, 1000);
+        int half = raw.readableBytes() / 2;
+        channel.writeInbound(frame(compress(raw.slice(0, half)), false));
+        channel.writeInbound(frame(compress(raw.slice(half, raw.readableBytes() - half)), true));
+        ByteBuf message = Unpooled.buffer();
+        channel.writeInbound(message);
+
+        // the second frame is ready first, but block is not complete without the first one
+        awaitDecompression();
+        assertNull(channel.readInbound());
+
+        latch.countDown();
+        awaitDecompression();
+        assertBlock(0, 1000);
+        assertSame(message, channel.readInbound());
+        message.release();
+
+        assertReleased();
+    }
+
+    @Test
+    void decodesPacketAfterBlockOfManyFrames() {
+        channel.finishAndReleaseAll();
+        channel = new EmbeddedChannel();
+        channel.config().setAllocator(new TrackingAllocator());
+        channel.attr(ClickHousePacketDecoder.CH_SERVER_COMPRESSION_METHOD_ATTRIBUTE).set(CompressionMethod.LZ4);
+        channel.pipeline().addLast(new ClickHousePacketDecoder(), new BlockDecompressingHandler(compressionGroup));
+
+        ByteBuf raw = block(0, 1000);
+        int third = raw.readableBytes() / 3;
+        ByteBuf packets = Unpooled.buffer();
+        // data packet, whose block is cut into three frames, data packet of one frame and end of stream
+        packets.writeByte(1).writeByte(0)
+                .writeBytes(compress(raw.slice(0, third)))
+                .writeBytes(compress(raw.slice(third, third)))
+                .writeBytes(compress(raw.slice(2 * third, raw.readableBytes() - 2 * third)))
+                .writeByte(1).writeByte(0)
+                .writeBytes(compress(block(1000, 10)))
+                .writeByte(5);
+        channel.writeInbound(packets);
+
+        // end of stream may be the next frame, until block is decompressed
+        awaitDecompression();
+        assertNull(channel.readInbound());
+
+        latch.countDown();
+        awaitDecompression();
+        assertBlock(0, 1000);
+        assertBlock(1000, 10);
+        assertSame(EndOfStreamMessage.END_OF_STREAM_MESSAGE, channel.readInbound());
+        assertNull(channel.readInbound());
+
+        assertReleased();
+    }
+
+    @Test
+    void failsOnBlockCutByNextPacket() {
+        ByteBuf raw = block(0, 1000);
+        channel.writeInbound(frame(compress(raw.slice(0, raw.readableBytes() / 2)), false));
+        ByteBuf message = Unpooled.buffer();
+        channel.writeInbound(message);
+
+        latch.countDown();
+        awaitDecompression();
+        assertThrows(DecoderException.class, channel::checkException);
+        assertNull(channel.readInbound());
+        assertEquals(0, message.refCnt());
+        assertReleased();
+    }
+
+    // completes tasks of both executors, including listeners of decompressed frames, and drains them
+    private void awaitDecompression() {
+        free.submit(() -> {
+        }).syncUninterruptibly();
+        if (latch.getCount() == 0) {
+            blocked.submit(() -> {
+            }).syncUninterruptibly();
+        }
+        channel.runPendingTasks();
+    }
+
+    private int readValue() {
+        DataBlock block = channel.readInbound();
+        try {
+            assertEquals(1, block.getRows());
+            return block.getColumnData(0).getIntLE(0);
+        } finally {
+            block.release();
+        }
+    }
+
+    private void assertBlock(int first, int rows) {
+        DataBlock block = channel.readInbound();
+        try {
+            assertEquals(rows, block.getRows());
+            for (int row = 0; row < rows; row++) {
+                assertEquals(first + row, block.getColumnData(0).getIntLE(row * 4));
+                assertEquals(String.valueOf(first + row), block.getString(1, row));
+            }
+        } finally {
+            block.release();
+        }
+    }
+
+    private void assertReleased() {
+        synchronized (buffers) {
+            assertFalse(buffers.isEmpty());
+            for (ByteBuf buf : buffers) {
+                assertEquals(0, buf.refCnt());
+            }
+        }
+    }
+
+    private final class TrackingAllocator extends AbstractByteBufAllocator {
+        @Override
+        protected ByteBuf newHeapBuffer(int initialCapacity, int maxCapacity) {
+            return track(Unpooled.buffer(initialCapacity, maxCapacity));
+        }
+
+        @Override
+        protected ByteBuf newDirectBuffer(int initialCapacity, int maxCapacity) {
+            return track(Unpooled.directBuffer(initialCapacity, maxCapacity));
+        }
+
+        @Override
+        public boolean isDirectBufferPooled() {
+            return false;
+        }
+
+        private ByteBuf track(ByteBuf buf) {
+            synchronized (buffers) {
+                buffers.add(buf);
+            }
+            return buf;
+        }
+    }
+
+    // one row block in the same form, as it is received from server
+    private static CompressedBlock frame(int value) {
+        return frame(compress(block(value, 1)), false);
+    }
+
+    // serialized block with UInt32 and String columns of consecutive values
+    private static ByteBuf block(int first, int rows) {
+        ByteBuf numbers = Unpooled.buffer();
+        ByteBuf strings = Unpooled.buffer();
+        for (int row = 0; row < rows; row++) {
+            numbers.writeIntLE(first + row);
+            ClientMessage.writeStringBinary(strings, String.valueOf(first + row));
+        }
+        ColumnWithTypeAndName[] columns = {
+                new ColumnWithTypeAndName(ColumnType.U_INT_32, "value", numbers),
+                new ColumnWithTypeAndName(ColumnType.STRING, "string", strings)};
+        ByteBuf raw = Unpooled.buffer();
+        DataBlockEncoder.writeBlock(new DataBlock(new BlockInfo(), columns, rows), raw);
+        return raw;
+    }
+
+    // frame with checksum and header, as server writes it
+    private static ByteBuf compress(ByteBuf raw) {
+        ByteBuf compressed = Unpooled.buffer();
+        CompressionMethod.LZ4.compress(raw, raw.readerIndex(), compressed, 0);
+        return compressed;
+    }
+
+    private static CompressedBlock frame(ByteBuf compressed, boolean continued) {
+        int decompressedSize = compressed.getIntLE(CompressionMethod.HASH_SIZE + 5);
+        compressed.skipBytes(CompressionMethod.HASH_SIZE + CompressionMethod.HEADER_SIZE);
+        return new CompressedBlock(CompressionMethod.LZ4.getMethodByte(), compressed, decompressedSize, continued);
+    }
+}
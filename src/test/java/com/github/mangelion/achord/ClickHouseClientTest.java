@@ -17,13 +17,22 @@
 package com.github.mangelion.achord;
 
 import com.github.mangelion.test.extensions.docker.DockerContainer;
+import io.netty.buffer.ByteBuf;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.SynchronousSink;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static reactor.adapter.JdkFlowAdapter.flowPublisherToFlux;
 import static reactor.adapter.JdkFlowAdapter.publisherToFlowPublisher;
 import static reactor.core.publisher.Flux.generate;
@@ -75,6 +84,81 @@ final class ClickHouseClientTest {
         flowPublisherToFlux(result).blockLast();
     }
 
+    @Test
+    @DockerContainer(image = "yandex/clickhouse-client", net = "host", waitStop = true, arguments = {
+            "--multiquery",
+            "--query=CREATE TABLE IF NOT EXISTS default.sendSmallIntMultipleTimes_withZstdCompression(date Date DEFAULT toDate(datetime), datetime DateTime DEFAULT now(), value UInt32) ENGINE = MergeTree(date, (date), 8192)"})
+    void sendSmallIntMultipleTimes_withZstdCompression() {
+        client = client.compression(CompressionMethod.ZSTD)
+                .zstdCompressionLevel(3);
+
+        Object[] data = new Object[]{1};
+
+        Flow.Publisher<Void> result = client.sendData("INSERT INTO default.sendSmallIntMultipleTimes_withZstdCompression(value)",
+                publisherToFlowPublisher(
+                        generate((Consumer<SynchronousSink<Object[]>>) sink -> sink.next(data))
+                                .take(NUMBERS_COUNT)));
+
+        flowPublisherToFlux(result).blockLast();
+    }
+
+    @Test
+    @DockerContainer(image = "yandex/clickhouse-client", net = "host", waitStop = true, arguments = {
+            "--multiquery",
+            "--query=CREATE TABLE IF NOT EXISTS default.sendSmallIntMultipleTimes_withLz4HcCompression(date Date DEFAULT toDate(datetime), datetime DateTime DEFAULT now(), value UInt32) ENGINE = MergeTree(date, (date), 8192)"})
+    void sendSmallIntMultipleTimes_withLz4HcCompression() {
+        client = client.compression(CompressionMethod.LZ4HC)
+                .lz4HcCompressionLevel(12);
+
+        Object[] data = new Object[]{1};
+
+        Flow.Publisher<Void> result = client.sendData("INSERT INTO default.sendSmallIntMultipleTimes_withLz4HcCompression(value)",
+                publisherToFlowPublisher(
+                        generate((Consumer<SynchronousSink<Object[]>>) sink -> sink.next(data))
+                                .take(NUMBERS_COUNT)));
+
+        flowPublisherToFlux(result).blockLast();
+    }
+
+    @Test
+    @DockerContainer(image = "yandex/clickhouse-client", net = "host", waitStop = true, arguments = {
+            "--multiquery",
+            "--query=CREATE TABLE IF NOT EXISTS default.sendSmallIntMultipleTimes_withAdaptiveCompression(date Date DEFAULT toDate(datetime), datetime DateTime DEFAULT now(), value UInt32) ENGINE = MergeTree(date, (date), 8192)"})
+    void sendSmallIntMultipleTimes_withAdaptiveCompression() {
+        client = client.adaptiveCompression(true);
+
+        Object[] data = new Object[]{1};
+
+        Flow.Publisher<Void> result = client.sendData("INSERT INTO default.sendSmallIntMultipleTimes_withAdaptiveCompression(value)",
+                publisherToFlowPublisher(
+                        generate((Consumer<SynchronousSink<Object[]>>) sink -> sink.next(data))
+                                .take(NUMBERS_COUNT)));
+
+        flowPublisherToFlux(result).blockLast();
+    }
+
+    @Test
+    @DockerContainer(image = "yandex/clickhouse-client", net = "host", waitStop = true, arguments = {
+            "--multiquery",
+            "--query=CREATE TABLE IF NOT EXISTS default.sendSmallIntMultipleTimes_withCustomGroups(date Date DEFAULT toDate(datetime), datetime DateTime DEFAULT now(), value UInt32) ENGINE = MergeTree(date, (date), 8192)"})
+    void sendSmallIntMultipleTimes_withCustomGroups() {
+        client = client.compression(CompressionMethod.LZ4)
+                .maxCompressBlockSize(256 * 1024)
+                .ioThreads(1)
+                .workerThreads(1)
+                .compressionThreads(4);
+
+        Object[] data = new Object[]{1};
+
+        Flow.Publisher<Void> result = client.sendData("INSERT INTO default.sendSmallIntMultipleTimes_withCustomGroups(value)",
+                publisherToFlowPublisher(
+                        generate((Consumer<SynchronousSink<Object[]>>) sink -> sink.next(data))
+                                .take(NUMBERS_COUNT)));
+
+        flowPublisherToFlux(result).blockLast();
+        client.close();
+    }
+
     @Test
     @DockerContainer(image = "yandex/clickhouse-client", net = "host", waitStop = true, arguments = {
             "--multiquery",
@@ -108,4 +192,494 @@ final class ClickHouseClientTest {
 
         flowPublisherToFlux(result).blockLast();
     }
-}
\ No newline at end of file
+
+    @Test
+    @DockerContainer(image = "yandex/clickhouse-client", net = "host", waitStop = true, arguments = {
+            "--multiquery",
+            "--query=CREATE TABLE IF NOT EXISTS default.sendTypedRows_withCompression(date Date, id UInt64, name String, value UInt32) ENGINE = MergeTree(date, (date), 8192)"})
+    void sendTypedRows_withCompression() {
+        client = client.compression(CompressionMethod.LZ4);
+
+        Flow.Publisher<Void> result = client.sendData("INSERT INTO default.sendTypedRows_withCompression(date, id, name, value)",
+                publisherToFlowPublisher(Flux.range(0, 10 * 1024 * 1024)),
+                (i, row) -> row.writeDate(17000 + (i & 7))
+                        .writeUInt64(i)
+                        .writeString("name")
+                        .writeUInt32(i));
+
+        flowPublisherToFlux(result).blockLast();
+    }
+
+    @Test
+    @DockerContainer(image = "yandex/clickhouse-client", net = "host", waitStop = true, arguments = {
+            "--multiquery",
+            "--query=DROP TABLE IF EXISTS default.sendColumns_withCompression; CREATE TABLE default.sendColumns_withCompression(date Date, id UInt64, name String) ENGINE = MergeTree(date, (date), 8192)"})
+    void sendColumns_withCompression() {
+        client = client.compression(CompressionMethod.LZ4);
+
+        int rows = 64 * 1024;
+        int[] dates = new int[rows];
+        long[] ids = new long[rows];
+        int[] codes = new int[rows];
+        CharSequence[] names = {"first", "second", "third"};
+        for (int i = 0; i < rows; i++) {
+            dates[i] = 17000 + (i & 7);
+            ids[i] = i;
+            codes[i] = i % names.length;
+        }
+        ColumnBatch batch = new ColumnBatch(rows, 3)
+                .date(dates)
+                .uint64(ids)
+                .string(codes, names);
+
+        int batches = 256;
+
+        Flow.Publisher<Void> result = client.sendColumns("INSERT INTO default.sendColumns_withCompression(date, id, name)",
+                publisherToFlowPublisher(Flux.just(batch).repeat(batches - 1)));
+
+        flowPublisherToFlux(result).blockLast();
+
+        long second = 0;
+        for (int i = 0; i < rows; i++) {
+            second += codes[i] == 1 ? 1 : 0;
+        }
+        assertArrayEquals(new long[]{(long) batches * rows, rows, batches * ((long) rows * (rows - 1) / 2), batches * second, batches * rows / 8},
+                selectRow("SELECT count(), uniqExact(id), sum(id), countIf(name = 'second'), countIf(toUInt16(date) = 17003) " +
+                        "FROM default.sendColumns_withCompression"));
+    }
+
+    @Test
+    @DockerContainer(image = "yandex/clickhouse-client", net = "host", waitStop = true, arguments = {
+            "--multiquery",
+            "--query=DROP TABLE IF EXISTS default.sendNullableRows_withCompression; CREATE TABLE default.sendNullableRows_withCompression(date Date, id Nullable(UInt64), name Nullable(String)) ENGINE = MergeTree(date, (date), 8192)"})
+    void sendNullableRows_withCompression() {
+        client = client.compression(CompressionMethod.LZ4);
+
+        int rows = 1024 * 1024;
+
+        Flow.Publisher<Void> result = client.sendData("INSERT INTO default.sendNullableRows_withCompression(date, id, name)",
+                publisherToFlowPublisher(Flux.range(0, rows)),
+                (i, row) -> {
+                    row.writeDate(17000);
+                    if (i % 3 == 0) {
+                        row.writeNull();
+                    } else {
+                        row.writeUInt64(i);
+                    }
+                    if (i % 5 == 0) {
+                        row.writeNull();
+                    } else {
+                        row.writeString("name");
+                    }
+                });
+
+        flowPublisherToFlux(result).blockLast();
+
+        long ids = 0, idSum = 0, names = 0;
+        for (int i = 0; i < rows; i++) {
+            if (i % 3 != 0) {
+                ids++;
+                idSum += i;
+            }
+            names += i % 5 != 0 ? 1 : 0;
+        }
+        assertArrayEquals(new long[]{rows, ids, idSum, names},
+                selectRow("SELECT count(), count(id), sum(ifNull(id, 0)), countIf(ifNull(name, '') = 'name') " +
+                        "FROM default.sendNullableRows_withCompression"));
+    }
+
+    @Test
+    @DockerContainer(image = "yandex/clickhouse-client", net = "host", waitStop = true, arguments = {
+            "--multiquery",
+            "--query=DROP TABLE IF EXISTS default.sendArrays_withCompression; CREATE TABLE default.sendArrays_withCompression(date Date, ids Array(UInt32), tags Array(String)) ENGINE = MergeTree(date, (date), 8192)"})
+    void sendArrays_withCompression() {
+        client = client.compression(CompressionMethod.LZ4);
+
+        int[] ids = {1, 2, 3};
+        CharSequence[] tags = {"first", "second"};
+
+        int rows = 1024 * 1024;
+
+        Flow.Publisher<Void> result = client.sendData("INSERT INTO default.sendArrays_withCompression(date, ids, tags)",
+                publisherToFlowPublisher(Flux.range(0, rows)),
+                (i, row) -> row.writeDate(17000)
+                        .writeArray(ids)
+                        .writeArray(tags));
+
+        flowPublisherToFlux(result).blockLast();
+
+        assertArrayEquals(new long[]{rows, 3L * rows, 6L * rows, 2L * rows, rows},
+                selectRow("SELECT count(), sum(length(ids)), sum(arraySum(ids)), sum(length(tags)), countIf(tags[2] = 'second') " +
+                        "FROM default.sendArrays_withCompression"));
+    }
+
+    @Test
+    @DockerContainer(image = "yandex/clickhouse-client", net = "host", waitStop = true, arguments = {
+            "--multiquery",
+            "--query=DROP TABLE IF EXISTS default.sendLowCardinality_withCompression; CREATE TABLE default.sendLowCardinality_withCompression(date Date, country LowCardinality(String), device LowCardinality(Nullable(String))) ENGINE = MergeTree(date, (date), 8192)"})
+    void sendLowCardinality_withCompression() {
+        client = client.compression(CompressionMethod.LZ4);
+
+        String[] countries = {"ru", "us", "de", "fr", "cn"};
+
+        int rows = 1024 * 1024;
+
+        Flow.Publisher<Void> result = client.sendData("INSERT INTO default.sendLowCardinality_withCompression(date, country, device)",
+                publisherToFlowPublisher(Flux.range(0, rows)),
+                (i, row) -> {
+                    row.writeDate(17000)
+                            .writeString(countries[i % countries.length]);
+                    if (i % 3 == 0) {
+                        row.writeNull();
+                    } else {
+                        row.writeString(i % 2 == 0 ? "mobile" : "desktop");
+                    }
+                });
+
+        flowPublisherToFlux(result).blockLast();
+
+        long nulls = 0, mobile = 0, first = 0;
+        for (int i = 0; i < rows; i++) {
+            nulls += i % 3 == 0 ? 1 : 0;
+            mobile += i % 3 != 0 && i % 2 == 0 ? 1 : 0;
+            first += i % countries.length == 0 ? 1 : 0;
+        }
+        assertArrayEquals(new long[]{rows, nulls, mobile, countries.length, first},
+                selectRow("SELECT count(), countIf(device IS NULL), countIf(device = 'mobile'), uniqExact(country), countIf(country = 'ru') " +
+                        "FROM default.sendLowCardinality_withCompression"));
+    }
+
+    @Test
+    @DockerContainer(image = "yandex/clickhouse-client", net = "host", waitStop = true, arguments = {
+            "--multiquery",
+            "--query=DROP TABLE IF EXISTS default.sendMetrics_withCompression; CREATE TABLE default.sendMetrics_withCompression(date Date, port UInt16, load Float32, latency Float64, price Decimal(18, 2)) ENGINE = MergeTree(date, (date), 8192)"})
+    void sendMetrics_withCompression() {
+        client = client.compression(CompressionMethod.LZ4);
+
+        int rows = 64 * 1024;
+        short[] ports = new short[rows];
+        float[] loads = new float[rows];
+        double[] latencies = new double[rows];
+        long[] prices = new long[rows];
+        int[] dates = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            ports[i] = (short) i;
+            loads[i] = i / 100f;
+            latencies[i] = i / 1000.0;
+            prices[i] = i * 100L + 99;
+            dates[i] = 17000;
+        }
+        ColumnBatch batch = new ColumnBatch(rows, 5)
+                .date(dates)
+                .uint16(ports)
+                .float32(loads)
+                .float64(latencies)
+                .decimal(prices);
+
+        int batches = 16;
+
+        Flow.Publisher<Void> result = client.sendColumns("INSERT INTO default.sendMetrics_withCompression(date, port, load, latency, price)",
+                publisherToFlowPublisher(Flux.just(batch).repeat(batches - 1)));
+
+        flowPublisherToFlux(result).blockLast();
+
+        long sum = (long) rows * (rows - 1) / 2;
+        assertArrayEquals(new long[]{(long) batches * rows, batches * sum, batches * sum, batches * sum, batches * (100 * sum + 99L * rows)},
+                selectRow("SELECT count(), sum(port), sum(toUInt64(round(load * 100))), sum(toUInt64(round(latency * 1000))), " +
+                        "sum(toInt64(price * 100)) FROM default.sendMetrics_withCompression"));
+    }
+
+    @Test
+    @DockerContainer(image = "yandex/clickhouse-client", net = "host", waitStop = true, arguments = {
+            "--multiquery",
+            "--query=DROP TABLE IF EXISTS default.sendSlowStream_withLinger; CREATE TABLE default.sendSlowStream_withLinger(date Date, id UInt64, name String) ENGINE = MergeTree(date, (date), 8192)"})
+    void sendSlowStream_withLinger() {
+        client = client.compression(CompressionMethod.LZ4)
+                .insertBlockBytes(64 * 1024)
+                .insertBlockLinger(100, TimeUnit.MILLISECONDS);
+
+        int fast = 64 * 1024;
+        int slow = 64;
+
+        Flow.Publisher<Void> result = client.sendData("INSERT INTO default.sendSlowStream_withLinger(date, id, name)",
+                publisherToFlowPublisher(Flux.range(0, fast)
+                        .concatWith(Flux.range(0, slow).delayElements(Duration.ofMillis(10)))),
+                (i, row) -> row.writeDate(17000)
+                        .writeUInt64(i)
+                        .writeString("name"));
+
+        flowPublisherToFlux(result).blockLast();
+
+        assertArrayEquals(new long[]{fast + slow, fast, (long) fast * (fast - 1) / 2 + slow * (slow - 1) / 2, fast + slow},
+                selectRow("SELECT count(), uniqExact(id), sum(id), countIf(name = 'name') FROM default.sendSlowStream_withLinger"));
+    }
+
+    @Test
+    @DockerContainer(image = "yandex/clickhouse-client", net = "host", waitStop = true, arguments = {
+            "--multiquery",
+            "--query=CREATE TABLE IF NOT EXISTS default.sendSmallBatchesThroughPool(date Date DEFAULT toDate(datetime), datetime DateTime DEFAULT now(), value UInt32) ENGINE = MergeTree(date, (date), 8192)"})
+    void sendSmallBatchesThroughPool() {
+        client = client.maxConnections(2);
+
+        Object[] data = new Object[]{1};
+
+        for (int i = 0; i < 1024; i++) {
+            Flow.Publisher<Void> result = client.sendData("INSERT INTO default.sendSmallBatchesThroughPool(value)",
+                    publisherToFlowPublisher(
+                            generate((Consumer<SynchronousSink<Object[]>>) sink -> sink.next(data))
+                                    .take(1024)));
+
+            flowPublisherToFlux(result).blockLast();
+        }
+    }
+
+    // the only row of query result, whose columns are UInt64 or Int64
+    private long[] selectRow(String query) {
+        List<long[]> rows = flowPublisherToFlux(client.query(query)).flatMapIterable(block -> {
+            try {
+                List<long[]> values = new ArrayList<>();
+                for (int row = 0; row < block.getRows(); row++) {
+                    long[] columns = new long[block.getColumnsCount()];
+                    for (int column = 0; column < columns.length; column++) {
+                        columns[column] = block.getColumnData(column).getLongLE(row * 8);
+                    }
+                    values.add(columns);
+                }
+                return values;
+            } finally {
+                block.release();
+            }
+        }).collectList().block();
+
+        assertEquals(1, rows.size());
+        return rows.get(0);
+    }
+
+    @Test
+    void changeOptionsAfterFirstQuery() {
+        client.maxConnections(2);
+        client.query("SELECT 1");
+
+        assertThrows(IllegalStateException.class, () -> client.compression(CompressionMethod.LZ4));
+        assertThrows(IllegalStateException.class, () -> client.maxConnections(4));
+        assertThrows(IllegalStateException.class, () -> client.tcpNoDelay(false));
+        client.close();
+    }
+
+    @Test
+    void changeCredentialsAfterFirstQuery() {
+        client.database("default");
+        client.query("SELECT 1");
+
+        assertThrows(IllegalStateException.class, () -> client.database("system"));
+        assertThrows(IllegalStateException.class, () -> client.username("default"));
+        assertThrows(IllegalStateException.class, () -> client.password(""));
+        client.close();
+    }
+
+    @Test
+    void queryNumbers() {
+        int count = 10 * 1024 * 1024;
+
+        Flux<DataBlock> result = flowPublisherToFlux(client.query("SELECT toUInt32(number) FROM system.numbers LIMIT " + count));
+
+        long rows = result.map(block -> {
+            try {
+                return (long) block.getRows();
+            } finally {
+                block.release();
+            }
+        }).reduce(0L, Long::sum).block();
+
+        assertEquals(count, rows);
+    }
+
+    @Test
+    void queryNumbers_withCompression() {
+        client = client.compression(CompressionMethod.LZ4);
+        int count = 10 * 1024 * 1024;
+
+        Flux<DataBlock> result = flowPublisherToFlux(client.query("SELECT toUInt32(number) FROM system.numbers LIMIT " + count));
+
+        long rows = result.map(block -> {
+            try {
+                return (long) block.getRows();
+            } finally {
+                block.release();
+            }
+        }).reduce(0L, Long::sum).block();
+
+        assertEquals(count, rows);
+    }
+
+    @Test
+    void queryNumbers_withZstdCompression() {
+        client = client.compression(CompressionMethod.ZSTD);
+        int count = 10 * 1024 * 1024;
+
+        Flux<DataBlock> result = flowPublisherToFlux(client.query("SELECT toUInt32(number) FROM system.numbers LIMIT " + count));
+
+        long rows = result.map(block -> {
+            try {
+                return (long) block.getRows();
+            } finally {
+                block.release();
+            }
+        }).reduce(0L, Long::sum).block();
+
+        assertEquals(count, rows);
+    }
+
+    @Test
+    void queryWideBlocks_withCompression() {
+        client = client.compression(CompressionMethod.LZ4);
+
+        assertEquals(1_000_000, queryWideBlocks(1_000_000));
+    }
+
+    @Test
+    void queryWideBlocks_withZstdCompression() {
+        client = client.compression(CompressionMethod.ZSTD);
+
+        assertEquals(1_000_000, queryWideBlocks(1_000_000));
+    }
+
+    // blocks of about 2 MiB, that server compresses as several frames, returns number of rows
+    private long queryWideBlocks(int count) {
+        Flux<DataBlock> result = flowPublisherToFlux(client.query(
+                "SELECT number, toString(number) AS s, concat(s, '-', s) FROM system.numbers LIMIT " + count));
+
+        return result.map(block -> {
+            try {
+                ByteBuf numbers = block.getColumnData(0);
+                for (int row = 0; row < block.getRows(); row++) {
+                    String number = String.valueOf(numbers.getLongLE(row * 8));
+                    assertEquals(number, block.getString(1, row));
+                    assertEquals(number + "-" + number, block.getString(2, row));
+                }
+                return (long) block.getRows();
+            } finally {
+                block.release();
+            }
+        }).reduce(0L, Long::sum).block();
+    }
+
+    @Test
+    void queryStrings() {
+        int count = 1024 * 1024;
+
+        Flux<DataBlock> result = flowPublisherToFlux(client.query("SELECT number, toString(number) FROM system.numbers LIMIT " + count));
+
+        long rows = result.map(block -> {
+            try {
+                ByteBuf numbers = block.getColumnData(0);
+                // values are checked backwards, so offsets are used for random access
+                for (int row = block.getRows() - 1; row >= 0; row--) {
+                    assertEquals(String.valueOf(numbers.getLongLE(row * 8)), block.getString(1, row));
+                }
+                return (long) block.getRows();
+            } finally {
+                block.release();
+            }
+        }).reduce(0L, Long::sum).block();
+
+        assertEquals(count, rows);
+    }
+
+    @Test
+    void queryNullableStrings() {
+        int count = 1024 * 1024;
+
+        Flux<DataBlock> result = flowPublisherToFlux(client.query("SELECT number, if(number % 3 = 0, NULL, toString(number)) FROM system.numbers LIMIT " + count));
+
+        long rows = result.map(block -> {
+            try {
+                ByteBuf numbers = block.getColumnData(0);
+                for (int row = 0; row < block.getRows(); row++) {
+                    long number = numbers.getLongLE(row * 8);
+                    assertEquals(number % 3 == 0, block.isNull(1, row));
+                    assertEquals(number % 3 == 0 ? null : String.valueOf(number), block.getString(1, row));
+                }
+                return (long) block.getRows();
+            } finally {
+                block.release();
+            }
+        }).reduce(0L, Long::sum).block();
+
+        assertEquals(count, rows);
+    }
+
+    @Test
+    void queryLowCardinality() {
+        int count = 1024 * 1024;
+
+        Flux<DataBlock> result = flowPublisherToFlux(client.query("SELECT number, toLowCardinality(toString(number % 10)) FROM system.numbers LIMIT " + count));
+
+        long rows = result.map(block -> {
+            try {
+                ByteBuf numbers = block.getColumnData(0);
+                for (int row = 0; row < block.getRows(); row++) {
+                    assertEquals(String.valueOf(numbers.getLongLE(row * 8) % 10), block.getString(1, row));
+                }
+                return (long) block.getRows();
+            } finally {
+                block.release();
+            }
+        }).reduce(0L, Long::sum).block();
+
+        assertEquals(count, rows);
+    }
+
+    @Test
+    void queryFloatsAndDecimals() {
+        int count = 1024 * 1024;
+
+        Flux<DataBlock> result = flowPublisherToFlux(client.query("SELECT number, toFloat64(number) / 4, toDecimal64(number, 2), toInt16(number) FROM system.numbers LIMIT " + count));
+
+        long rows = result.map(block -> {
+            try {
+                assertEquals("Decimal(18, 2)", block.getColumnType(2));
+                ByteBuf numbers = block.getColumnData(0);
+                for (int row = 0; row < block.getRows(); row++) {
+                    long number = numbers.getLongLE(row * 8);
+                    assertEquals(number / 4.0, block.getColumnData(1).getDoubleLE(row * 8));
+                    assertEquals(number * 100, block.getColumnData(2).getLongLE(row * 8));
+                    assertEquals((short) number, block.getColumnData(3).getShortLE(row * 2));
+                }
+                return (long) block.getRows();
+            } finally {
+                block.release();
+            }
+        }).reduce(0L, Long::sum).block();
+
+        assertEquals(count, rows);
+    }
+
+    @Test
+    void queryArrays() {
+        int count = 1024 * 1024;
+
+        Flux<DataBlock> result = flowPublisherToFlux(client.query("SELECT range(toUInt32(number % 4)) FROM system.numbers LIMIT " + count));
+
+        long elements = result.map(block -> {
+            try {
+                ByteBuf offsets = block.getColumnData(0);
+                ByteBuf values = block.getNestedColumnData(0);
+                long start = 0;
+                for (int row = 0; row < block.getRows(); row++) {
+                    long end = offsets.getLongLE(row * 8);
+                    // every array is 0, 1, 2...
+                    for (long i = start; i < end; i++) {
+                        assertEquals(i - start, values.getIntLE((int) i * 4));
+                    }
+                    start = end;
+                }
+                return start;
+            } finally {
+                block.release();
+            }
+        }).reduce(0L, Long::sum).block();
+
+        assertEquals(count / 4 * (0 + 1 + 2 + 3), elements);
+    }
+}
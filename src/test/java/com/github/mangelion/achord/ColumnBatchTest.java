@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017-2018 Mangelion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.mangelion.achord;
+
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+final class ColumnBatchTest {
+
+    @Test
+    void rejectsCodesOutOfDictionary() {
+        CharSequence[] dictionary = {"a", "b"};
+
+        assertThrows(IllegalArgumentException.class, () -> new ColumnBatch(2, 1).string(new int[]{0, 2}, dictionary));
+        assertThrows(IllegalArgumentException.class, () -> new ColumnBatch(2, 1).string(new int[]{-1, 0}, dictionary));
+        // codes after rows are not sent
+        assertEquals(2, new ColumnBatch(2, 1).string(new int[]{1, 0, 5}, dictionary).getRows());
+    }
+
+    @Test
+    void rejectsRawDataOfOtherSize() {
+        ColumnWithTypeAndName column = column(ColumnType.U_INT_32, "UInt32");
+        RowWriter writer = writer(column);
+
+        assertThrows(IllegalArgumentException.class, () -> writer.writeBatch(new ColumnBatch(2, 1).raw(ByteBuffer.allocate(12))));
+        assertThrows(IllegalArgumentException.class, () -> writer.writeBatch(new ColumnBatch(2, 1).raw(ByteBuffer.allocate(4))));
+        assertEquals(0, column.data.readableBytes());
+
+        assertEquals(2, writer.writeBatch(new ColumnBatch(2, 1).raw(ByteBuffer.allocate(8))));
+        assertEquals(8, column.data.readableBytes());
+    }
+
+    @Test
+    void rejectsDecreasingOffsets() {
+        long[] values = {1, 2, 3};
+
+        assertThrows(IllegalArgumentException.class, () -> new ColumnBatch(3, 1).array(new int[]{0, 2, 1, 3}, values));
+        assertThrows(IllegalArgumentException.class, () -> new ColumnBatch(2, 1).array(new int[]{1, 0, 3}, values));
+        assertThrows(IllegalArgumentException.class, () -> new ColumnBatch(2, 1).array(new int[]{0, 1, 4}, values));
+        assertEquals(3, new ColumnBatch(3, 1).array(new int[]{0, 0, 3, 3}, values).getRows());
+    }
+
+    @Test
+    void rejectsDecimal32Overflow() {
+        ColumnWithTypeAndName decimals = column(ColumnType.DECIMAL_32, "Decimal(9, 2)");
+        ColumnWithTypeAndName elements = column(ColumnType.DECIMAL_32, "Decimal(9, 2)");
+        ColumnWithTypeAndName arrays = new ColumnWithTypeAndName(ColumnType.ARRAY, "Array(Decimal(9, 2))", "value",
+                Unpooled.buffer(), elements, null, null);
+        RowWriter writer = writer(decimals, arrays);
+
+        assertThrows(ArithmeticException.class, () -> writer.writeBatch(new ColumnBatch(2, 2)
+                .decimal(new long[]{1, 1L << 40})
+                .array(new int[]{0, 1, 2}, new long[]{1, 2})));
+        assertThrows(ArithmeticException.class, () -> writer.writeBatch(new ColumnBatch(2, 2)
+                .decimal(new long[]{1, 2})
+                .array(new int[]{0, 1, 2}, new long[]{1, Integer.MIN_VALUE - 1L})));
+        assertEquals(0, decimals.data.readableBytes());
+        assertEquals(0, arrays.data.readableBytes());
+        assertEquals(0, elements.data.readableBytes());
+
+        assertEquals(2, writer.writeBatch(new ColumnBatch(2, 2)
+                .decimal(new long[]{Integer.MIN_VALUE, Integer.MAX_VALUE})
+                .array(new int[]{0, 1, 2}, new long[]{-1, 1})));
+        assertEquals(Integer.MAX_VALUE, decimals.data.getIntLE(4));
+        assertThrows(ArithmeticException.class, () -> writer.writeDecimal(1L << 40));
+    }
+
+    static ColumnWithTypeAndName column(byte type, String typeName) {
+        return new ColumnWithTypeAndName(type, typeName, "value", Unpooled.buffer(), null, null, null);
+    }
+
+    static RowWriter writer(ColumnWithTypeAndName... columns) {
+        RowWriter writer = new RowWriter();
+        writer.target(columns);
+        return writer;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2017-2018 Mangelion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.mangelion.achord;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class ColumnBufferPoolTest {
+    private static final ByteBufAllocator ALLOC = new UnpooledByteBufAllocator(true);
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 20_000;
+
+    @Test
+    void reusesRecycledBuffer() {
+        ColumnBufferPool pool = new ColumnBufferPool(1 << 20);
+        ByteBuf buf = pool.acquire(ALLOC, 100_000);
+        buf.writeLong(1);
+
+        assertTrue(pool.recycle(buf));
+        ByteBuf reused = pool.acquire(ALLOC, 60_000);
+        assertSame(buf, reused);
+        assertEquals(0, reused.writerIndex());
+
+        // buffer of the smaller class does not fit
+        assertTrue(pool.recycle(reused));
+        ByteBuf other = pool.acquire(ALLOC, 200_000);
+        assertNotSame(buf, other);
+
+        other.release();
+        pool.clear();
+        assertEquals(0, buf.refCnt());
+    }
+
+    @Test
+    void boundsPooledBytes() {
+        ColumnBufferPool pool = new ColumnBufferPool(1 << 17);
+        ByteBuf first = pool.acquire(ALLOC, 1 << 17);
+        ByteBuf second = pool.acquire(ALLOC, 1 << 17);
+
+        assertTrue(pool.recycle(first));
+        assertFalse(pool.recycle(second));
+
+        second.release();
+        pool.clear();
+    }
+
+    @Test
+    void doesNotRecycleRetainedOrHeapBuffers() {
+        ColumnBufferPool pool = new ColumnBufferPool(1 << 20);
+        ByteBuf retained = pool.acquire(ALLOC, 1 << 16).retain();
+        ByteBuf heap = ALLOC.heapBuffer(1 << 16);
+
+        assertFalse(pool.recycle(retained));
+        assertFalse(pool.recycle(heap));
+
+        retained.release(2);
+        heap.release();
+    }
+
+    @Test
+    void doesNotRecycleAfterClear() {
+        ColumnBufferPool pool = new ColumnBufferPool(1 << 20);
+        ByteBuf buf = pool.acquire(ALLOC, 1 << 16);
+        pool.clear();
+
+        assertFalse(pool.recycle(buf));
+        buf.release();
+    }
+
+    @Test
+    void acquiresEveryBufferByOneThreadAtOnce() throws InterruptedException {
+        ColumnBufferPool pool = new ColumnBufferPool(1 << 24);
+        Set<ByteBuf> held = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+        ConcurrentLinkedQueue<ByteBuf> all = new ConcurrentLinkedQueue<>();
+        AtomicInteger shared = new AtomicInteger();
+
+        run(i -> {
+            ByteBuf buf = pool.acquire(ALLOC, (1 << 16) + (i % 4) * (1 << 16));
+            if (buf.refCnt() != 1 || !held.add(buf)) {
+                shared.incrementAndGet();
+            }
+            all.add(buf);
+            buf.writeInt(i);
+            held.remove(buf);
+            if (!pool.recycle(buf)) {
+                buf.release();
+            }
+        });
+        pool.clear();
+
+        assertEquals(0, shared.get());
+        for (ByteBuf buf : all) {
+            assertEquals(0, buf.refCnt());
+        }
+    }
+
+    @Test
+    void releasesBuffersRecycledWhileClearing() throws InterruptedException {
+        ColumnBufferPool pool = new ColumnBufferPool(1 << 24);
+        ConcurrentLinkedQueue<ByteBuf> all = new ConcurrentLinkedQueue<>();
+
+        run(i -> {
+            if (i == ITERATIONS / 2) {
+                pool.clear();
+            }
+            ByteBuf buf = pool.acquire(ALLOC, 1 << 16);
+            all.add(buf);
+            if (!pool.recycle(buf)) {
+                buf.release();
+            }
+        });
+
+        for (ByteBuf buf : all) {
+            assertEquals(0, buf.refCnt());
+        }
+    }
+
+    private static void run(IterationTask task) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < ITERATIONS; i++) {
+                    task.run(i);
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    @FunctionalInterface
+    private interface IterationTask {
+        void run(int iteration);
+    }
+}
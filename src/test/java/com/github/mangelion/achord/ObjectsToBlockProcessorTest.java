@@ -0,0 +1,262 @@
+/*
+ * Copyright 2017-2018 Mangelion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.mangelion.achord;
+
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.DefaultEventLoop;
+import io.netty.channel.EventLoop;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+final class ObjectsToBlockProcessorTest {
+    private static final int BLOCK_ROWS = 1000;
+    private final EventLoop eventLoop = new DefaultEventLoop();
+    private final Upstream upstream = new Upstream();
+    private final Downstream downstream = new Downstream();
+
+    @AfterEach
+    void tearDown() {
+        downstream.blocks.forEach(ReferenceCountUtil::release);
+        eventLoop.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void requestsRowsOfBlocksFromRowWriter() {
+        ObjectsToBlockProcessor<Integer> processor = processor(BlockWriter.rows((Integer value, RowWriter w) -> w.writeUInt32(value)));
+
+        downstream.subscription.request(2);
+        awaitEventLoop();
+        assertEquals(2 * BLOCK_ROWS, upstream.total.get());
+
+        for (int i = 0; i < 2 * BLOCK_ROWS; i++) {
+            processor.onNext(i);
+        }
+        assertEquals(2, downstream.blocks.size());
+    }
+
+    @Test
+    void sendsBlockOnceItsBytesAreWritten() {
+        Settings settings = new Settings();
+        settings.setInsertBlockRows(BLOCK_ROWS);
+        // 100 rows of UInt32 column
+        settings.setInsertBlockBytes(400);
+        ObjectsToBlockProcessor<Integer> processor = processor(BlockWriter.rows((Integer value, RowWriter w) -> w.writeUInt32(value)), settings);
+
+        downstream.subscription.request(1);
+        awaitEventLoop();
+        for (int i = 0; i < 250; i++) {
+            processor.onNext(i);
+        }
+        // size is not measured after every row, but it is measured at the row, that fills block bytes
+        assertEquals(2, downstream.blocks.size());
+        for (DataBlock block : downstream.blocks) {
+            assertEquals(100, block.getRows());
+        }
+    }
+
+    @Test
+    void requestsBatchesByEstimatedRows() {
+        ObjectsToBlockProcessor<ColumnBatch> processor = processor((batch, w) -> w.writeBatch(batch));
+
+        downstream.subscription.request(1);
+        awaitEventLoop();
+        // size of batches is not known yet
+        assertEquals(1, upstream.total.get());
+
+        long maxOutstanding = deliver(processor, 100);
+        assertEquals(1, downstream.blocks.size());
+        assertEquals(BLOCK_ROWS, downstream.blocks.peek().getRows());
+        assertEquals(BLOCK_ROWS / 100, upstream.total.get());
+        assertEquals(BLOCK_ROWS / 100 - 1, maxOutstanding);
+
+        downstream.subscription.request(1);
+        awaitEventLoop();
+        assertEquals(BLOCK_ROWS / 100, upstream.outstanding.get());
+    }
+
+    @Test
+    void requestsRowsTakenByBatchLargerThanBlock() {
+        ObjectsToBlockProcessor<ColumnBatch> processor = processor((batch, w) -> w.writeBatch(batch));
+
+        downstream.subscription.request(1);
+        awaitEventLoop();
+        deliver(processor, 1500);
+        assertEquals(1, downstream.blocks.size());
+        assertEquals(1, upstream.total.get());
+
+        downstream.subscription.request(2);
+        awaitEventLoop();
+        assertEquals(2, upstream.outstanding.get());
+        deliver(processor, 1500);
+        assertEquals(3, downstream.blocks.size());
+        assertEquals(3, upstream.total.get());
+    }
+
+    @Test
+    void keepsRowsOfConcurrentWriters() throws InterruptedException {
+        int threads = 8;
+        int values = 20_000;
+        Settings settings = new Settings();
+        settings.setInsertBlockRows(100);
+        // linger rotates generations from event loop, while writers rotate them on full blocks
+        settings.setInsertBlockLingerNanos(TimeUnit.MICROSECONDS.toNanos(50));
+        ObjectsToBlockProcessor<Integer> processor = processor(BlockWriter.rows((Integer value, RowWriter w) -> w.writeUInt32(value)), settings);
+
+        // every row may get its own block
+        downstream.subscription.request(threads * values);
+        awaitEventLoop();
+
+        Thread[] writers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int base = t * values;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < values; i++) {
+                    processor.onNext(base + i);
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        processor.onComplete();
+        awaitEventLoop();
+
+        BitSet seen = new BitSet(threads * values);
+        long rows = 0;
+        DataBlock last = null;
+        for (DataBlock block : downstream.blocks) {
+            for (int r = 0; r < block.getRows(); r++) {
+                int value = block.getColumnData(0).getIntLE(r * 4);
+                assertFalse(seen.get(value), "Duplicated row " + value);
+                seen.set(value);
+            }
+            rows += block.getRows();
+            last = block;
+        }
+        assertEquals(threads * values, rows);
+        assertEquals(threads * values, seen.cardinality());
+        // blocks of different generations are passed one at a time, and empty block is the last one
+        assertEquals(0, downstream.overlapped.get());
+        assertEquals(0, last.getRows());
+    }
+
+    @Test
+    void rejectsUnsupportedLowCardinalityColumns() {
+        BlockWriter<Object[]> blockWriter = BlockWriter.rows((row, w) -> w.writeObjects(row));
+
+        for (String type : new String[]{"Array(LowCardinality(String))", "LowCardinality(UInt32)", "Array(Array(LowCardinality(String)))"}) {
+            DataBlock sample = new DataBlock(new BlockInfo(),
+                    new ColumnWithTypeAndName[]{ColumnType.column("value", "UInt32"), ColumnType.column("dictionary", type)}, 0);
+
+            assertThrows(IllegalArgumentException.class, () -> new ObjectsToBlockProcessor<>(sample,
+                    eventLoop, UnpooledByteBufAllocator.DEFAULT, blockWriter, new Settings(), new ColumnBufferPool(0)));
+        }
+    }
+
+    private <T> ObjectsToBlockProcessor<T> processor(BlockWriter<T> blockWriter) {
+        Settings settings = new Settings();
+        settings.setInsertBlockRows(BLOCK_ROWS);
+        return processor(blockWriter, settings);
+    }
+
+    private <T> ObjectsToBlockProcessor<T> processor(BlockWriter<T> blockWriter, Settings settings) {
+        ColumnWithTypeAndName[] columns = {ColumnType.column("value", "UInt32")};
+        ObjectsToBlockProcessor<T> processor = new ObjectsToBlockProcessor<>(new DataBlock(new BlockInfo(), columns, 0),
+                eventLoop, UnpooledByteBufAllocator.DEFAULT, blockWriter, settings, new ColumnBufferPool(0));
+        processor.onSubscribe(upstream);
+        processor.subscribe(downstream);
+        return processor;
+    }
+
+    // sends requested batches until upstream is not requested anymore, returns maximum number of requested ones
+    private long deliver(ObjectsToBlockProcessor<ColumnBatch> processor, int rows) {
+        long maxOutstanding = 0;
+        while (upstream.outstanding.get() > 0) {
+            upstream.outstanding.decrementAndGet();
+            processor.onNext(new ColumnBatch(rows, 1).uint32(new int[rows]));
+            awaitEventLoop();
+            maxOutstanding = Math.max(maxOutstanding, upstream.outstanding.get());
+        }
+        return maxOutstanding;
+    }
+
+    private void awaitEventLoop() {
+        eventLoop.submit(() -> {
+        }).syncUninterruptibly();
+    }
+
+    private static final class Upstream implements Flow.Subscription {
+        final AtomicLong outstanding = new AtomicLong();
+        final AtomicLong total = new AtomicLong();
+
+        @Override
+        public void request(long n) {
+            outstanding.addAndGet(n);
+            total.addAndGet(n);
+        }
+
+        @Override
+        public void cancel() {
+        }
+    }
+
+    private static final class Downstream implements Flow.Subscriber<DataBlock> {
+        final ConcurrentLinkedQueue<DataBlock> blocks = new ConcurrentLinkedQueue<>();
+        // calls of onNext, that are made while another one is not returned yet
+        final AtomicInteger overlapped = new AtomicInteger();
+        private final AtomicBoolean inside = new AtomicBoolean();
+        volatile Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(DataBlock block) {
+            if (!inside.compareAndSet(false, true)) {
+                overlapped.incrementAndGet();
+            }
+            blocks.add(block);
+            Thread.yield();
+            inside.set(false);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            throw new AssertionError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}